@@ -0,0 +1,137 @@
+package Server;
+
+import Shared.FrameType;
+import Shared.User;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Heap bytes allocated per broadcast, encode-once vs the old per-recipient getBytes().
+// Run with: ant bench -Dbench.class=Server.BroadcastAllocationBench
+public class BroadcastAllocationBench {
+    private static final int[] RECIPIENTS = {10, 100, 1000};
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        String message = "bench: " + new String(chars);
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.printf("%-10s %20s %20s%n", "recipients", "per-recipient B/op", "encode-once B/op");
+        for (int n : RECIPIENTS) {
+            try (Fixture fixture = new Fixture(n)) {
+                long legacy = 0, shared = 0;
+                for (int pass = 0; pass < 2; pass++) { // first pass is warmup
+                    legacy = measure(threads, fixture, () -> {
+                        for (NioConnection c : fixture.connections) {
+                            c.enqueue(ByteBuffer.wrap((message + "\n").getBytes()), false);
+                        }
+                    });
+                    shared = measure(threads, fixture, () -> {
+                        OutboundFrame frame = new OutboundFrame(FrameType.CHAT, message, false);
+                        for (NioConnection c : fixture.connections) {
+                            c.enqueue(c.encode(frame, false), false);
+                        }
+                    });
+                }
+                System.out.printf("%-10d %20d %20d%n", n, legacy, shared);
+            }
+        }
+    }
+
+    private interface Broadcast {
+        void run() throws IOException;
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threads, Fixture fixture, Broadcast broadcast)
+            throws IOException {
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            broadcast.run();
+            fixture.flushAll();
+        }
+        return (threads.getCurrentThreadAllocatedBytes() - before) / ROUNDS;
+    }
+
+    // N loopback connections whose far ends are drained by a background thread
+    private static class Fixture implements AutoCloseable {
+        final List<NioConnection> connections = new ArrayList<>();
+        final List<SocketChannel> peers = new ArrayList<>();
+        final Selector selector = Selector.open();
+        final Thread drainer;
+        volatile boolean running = true;
+
+        Fixture(int n) throws IOException {
+            ServerConfig config = new ServerConfig();
+            config.setHighWatermark(Integer.MAX_VALUE);
+            BufferPool pool = new BufferPool(config.getReadBufferSize(), 0);
+            ServerMetrics metrics = new ServerMetrics(null, config); // counters only, never started
+            Selector drainSelector = Selector.open();
+            try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+                acceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                for (int i = 0; i < n; i++) {
+                    SocketChannel peer = SocketChannel.open(acceptor.getLocalAddress());
+                    SocketChannel accepted = acceptor.accept();
+                    accepted.configureBlocking(false);
+                    SelectionKey key = accepted.register(selector, SelectionKey.OP_READ);
+                    NioConnection connection = new NioConnection(accepted, key, new User("user" + i), config, pool,
+                        metrics, null);
+                    connection.setWireFormat(WireFormat.TEXT);
+                    connections.add(connection);
+                    peer.configureBlocking(false);
+                    peer.register(drainSelector, SelectionKey.OP_READ);
+                    peers.add(peer);
+                }
+            }
+            drainer = new Thread(() -> drain(drainSelector));
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+
+        // Stands in for the OP_WRITE handling of the server's selector loop
+        void flushAll() throws IOException {
+            for (NioConnection c : connections) {
+                if (c.getQueuedBytes() > 0) {
+                    c.flush();
+                }
+            }
+        }
+
+        private void drain(Selector drainSelector) {
+            ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+            try (drainSelector) {
+                while (running) {
+                    drainSelector.select(100);
+                    for (SelectionKey key : drainSelector.selectedKeys()) {
+                        sink.clear();
+                        ((SocketChannel) key.channel()).read(sink);
+                    }
+                    drainSelector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                // fixture is closing
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            running = false;
+            for (NioConnection c : connections) {
+                c.close();
+            }
+            for (SocketChannel peer : peers) {
+                peer.close();
+            }
+            selector.close();
+        }
+    }
+}
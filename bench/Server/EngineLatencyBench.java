@@ -0,0 +1,303 @@
+package Server;
+
+import Shared.User;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Broadcast latency of the NIO and virtual-thread engines under N idle listeners.
+// One client sends timestamped messages; every client records send-to-receive latency.
+// Clients register on connect: the server only puts a connection in the lobby once it has
+// spoken, so a silent listener would receive nothing.
+//
+// ant bench -Dbench.class=Server.EngineLatencyBench -Dbench.args="nio,vt 1000,10000,50000 200"
+//
+// More than ~28k connections need a raised fd limit (ulimit -n); clients spread across
+// 127.0.0.x source addresses so the ephemeral port range is not the limit.
+public class EngineLatencyBench {
+    private static final int CLIENTS_PER_SOURCE_ADDRESS = 20000;
+    private static final long SEND_INTERVAL_NANOS = 10_000_000; // 10 ms between broadcasts
+    private static final byte[] MARKER = ": lat ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] USERLIST = "/userlist".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        String[] engines = (args.length > 0 ? args[0] : "nio,vt").split(",");
+        String[] sizes = (args.length > 1 ? args[1] : "1000,10000,50000").split(",");
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        System.out.printf("%-7s %8s %10s %10s %10s %10s %12s%n",
+            "engine", "clients", "p50 us", "p99 us", "p999 us", "max us", "delivered");
+        int port = 16000;
+        for (String size : sizes) {
+            for (String engine : engines) {
+                run(engine, Integer.parseInt(size), messages, port++);
+            }
+        }
+    }
+
+    private static void run(String engineName, int clients, int messages, int port) throws Exception {
+        ServerConfig config = new ServerConfig(port);
+        config.setHighWatermark(4 * 1024 * 1024);
+        config.setJournalDirectory(null);
+        config.setMetricsIntervalMillis(0);
+        config.setMessagesPerSecond(0); // measure the engine, not its flood protection
+        config.setBytesPerSecond(0);
+        config.setFanOutBytesPerSecond(0);
+        ChatEngine engine = engineName.equals("vt")
+            ? new VirtualThreadChatServer(config, new SilentListener())
+            : new ChatServer(config, new SilentListener());
+        Thread serverThread = new Thread(() -> {
+            try {
+                engine.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "bench-server");
+        serverThread.start();
+        Thread.sleep(500);
+
+        int readerCount = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        List<Reader> readers = new ArrayList<>();
+        for (int i = 0; i < readerCount; i++) {
+            Reader reader = new Reader(i);
+            readers.add(reader);
+            reader.thread.start();
+        }
+
+        List<SocketChannel> channels = new ArrayList<>(clients);
+        long connectStart = System.nanoTime();
+        try {
+            for (int i = 0; i < clients; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.bind(new InetSocketAddress("127.0.0." + (2 + i / CLIENTS_PER_SOURCE_ADDRESS), 0));
+                channel.connect(new InetSocketAddress("127.0.0.1", port));
+                ByteBuffer register = ByteBuffer.wrap(("/register lat" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                while (register.hasRemaining()) {
+                    channel.write(register);
+                }
+                channel.configureBlocking(false);
+                channels.add(channel);
+                readers.get(i % readerCount).add(channel);
+            }
+        } catch (IOException e) {
+            System.out.printf("%-7s %8d  connect failed after %d clients: %s (check ulimit -n)%n",
+                engineName, clients, channels.size(), e.getMessage());
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+
+        // Every client has its roster, then the join traffic (user lists) settles before measuring
+        waitForJoined(readers, channels.size(), 120_000);
+        waitForQuiet(readers, 1000, 120_000);
+        for (Reader reader : readers) {
+            reader.startMeasuring();
+        }
+
+        SocketChannel sender = channels.get(0);
+        long expected = (long) messages * channels.size();
+        for (int i = 0; i < messages; i++) {
+            long next = System.nanoTime() + SEND_INTERVAL_NANOS;
+            ByteBuffer line = ByteBuffer.wrap(("lat " + System.nanoTime() + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                sender.write(line);
+            }
+            while (System.nanoTime() < next) {
+                Thread.onSpinWait();
+            }
+        }
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (delivered(readers) < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        LatencyHistogram total = new LatencyHistogram();
+        for (Reader reader : readers) {
+            reader.stop();
+            total.add(reader.histogram);
+        }
+        System.out.printf("%-7s %8d %10d %10d %10d %10d %6d/%-6d (connect %d ms)%n",
+            engineName, channels.size(), total.percentile(50), total.percentile(99),
+            total.percentile(99.9), total.getMax(), total.getTotal(), expected, connectMillis);
+
+        engine.stop();
+        serverThread.join();
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    private static long delivered(List<Reader> readers) {
+        long sum = 0;
+        for (Reader reader : readers) {
+            sum += reader.delivered.get();
+        }
+        return sum;
+    }
+
+    private static void waitForJoined(List<Reader> readers, int clients, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            long joined = 0;
+            for (Reader reader : readers) {
+                joined += reader.joined.get();
+            }
+            if (joined >= clients) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static void waitForQuiet(List<Reader> readers, long quietMillis, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            long last = 0;
+            for (Reader reader : readers) {
+                last = Math.max(last, reader.lastReadMillis);
+            }
+            if (System.currentTimeMillis() - last >= quietMillis) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    // Scans incoming lines for "<name>: lat <nanos>" and records the latency in microseconds
+    private static class Reader implements Runnable {
+        final Thread thread;
+        final Selector selector;
+        final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong joined = new AtomicLong(); // clients that got their first /userlist
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        volatile long lastReadMillis = System.currentTimeMillis();
+        volatile boolean measuring;
+        volatile boolean running = true;
+
+        Reader(int id) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "bench-reader-" + id);
+            thread.setDaemon(true);
+        }
+
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void startMeasuring() {
+            measuring = true;
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            selector.wakeup();
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(100);
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new LineState());
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        read((SocketChannel) key.channel(), (LineState) key.attachment());
+                    }
+                    selector.selectedKeys().clear();
+                }
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void read(SocketChannel channel, LineState state) throws IOException {
+            buffer.clear();
+            if (channel.read(buffer) <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            lastReadMillis = System.currentTimeMillis();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    if (!state.joined && state.isUserList()) {
+                        state.joined = true;
+                        joined.incrementAndGet();
+                    }
+                    long sent = state.timestamp();
+                    if (sent > 0 && measuring) {
+                        histogram.record((now - sent) / 1000);
+                        delivered.incrementAndGet();
+                    }
+                    state.length = 0;
+                } else if (state.length < state.line.length) {
+                    state.line[state.length++] = b;
+                }
+            }
+        }
+    }
+
+    // Start of the current line; long lines (user lists) are truncated, which is fine
+    private static class LineState {
+        final byte[] line = new byte[64];
+        int length;
+        boolean joined;
+
+        boolean isUserList() {
+            if (length < USERLIST.length) {
+                return false;
+            }
+            for (int i = 0; i < USERLIST.length; i++) {
+                if (line[i] != USERLIST[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long timestamp() {
+            outer:
+            for (int i = 0; i + MARKER.length < length; i++) {
+                for (int j = 0; j < MARKER.length; j++) {
+                    if (line[i + j] != MARKER[j]) {
+                        continue outer;
+                    }
+                }
+                long value = 0;
+                for (int k = i + MARKER.length; k < length && line[k] >= '0' && line[k] <= '9'; k++) {
+                    value = value * 10 + (line[k] - '0');
+                }
+                return value;
+            }
+            return -1;
+        }
+    }
+
+    private static class SilentListener implements ServerListener {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void updateClientList(Map<SocketChannel, User> clients) {
+        }
+    }
+}
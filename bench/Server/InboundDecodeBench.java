@@ -0,0 +1,146 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Read-path throughput and garbage per message: the old StringBuilder line splitting vs
+// InboundBuffer on a pooled direct buffer, fed in 1460 byte (one TCP segment) chunks.
+// Run with: ant bench -Dbench.class=Server.InboundDecodeBench
+public class InboundDecodeBench {
+    private static final int MESSAGES = 200_000;
+    private static final int CHUNK = 1460;
+
+    public static void main(String[] args) throws IOException {
+        char[] chars = new char[60];
+        Arrays.fill(chars, 'é'); // two bytes each, so chunk edges split UTF-8 sequences
+        String message = new String(chars);
+
+        ByteBuffer lines = ByteBuffer.allocate(MESSAGES * 200);
+        ByteBuffer frames = ByteBuffer.allocate(MESSAGES * 200);
+        for (int i = 0; i < MESSAGES; i++) {
+            lines.put((message + "\n").getBytes(StandardCharsets.UTF_8));
+            frames.put(FrameCodec.encode(FrameType.CHAT, message, false));
+        }
+        lines.flip();
+        frames.flip();
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.printf("%-28s %12s %10s%n", "decoder", "msgs/s", "B/msg");
+        for (int pass = 0; pass < 3; pass++) { // the first passes warm up the JIT
+            boolean print = pass == 2;
+            measure(threads, "legacy StringBuilder", print, () -> legacy(new ChunkedChannel(lines)));
+            measure(threads, "inbound text, no String", print, () -> inboundText(new ChunkedChannel(lines), false));
+            measure(threads, "inbound text + String", print, () -> inboundText(new ChunkedChannel(lines), true));
+            measure(threads, "inbound binary, no String", print, () -> inboundBinary(new ChunkedChannel(frames), false));
+            measure(threads, "inbound binary + String", print, () -> inboundBinary(new ChunkedChannel(frames), true));
+        }
+    }
+
+    private interface Decode {
+        long run() throws IOException;
+    }
+
+    private static void measure(com.sun.management.ThreadMXBean threads, String name, boolean print, Decode decode)
+            throws IOException {
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long count = decode.run();
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        if (count != MESSAGES) {
+            throw new IllegalStateException(name + " decoded " + count + " messages");
+        }
+        if (print) {
+            System.out.printf("%-28s %12d %10.1f%n", name, count * 1_000_000_000L / nanos, (double) allocated / count);
+        }
+    }
+
+    // The pre-InboundBuffer ChatServer.readMessage
+    private static long legacy(ChunkedChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        StringBuilder messageBuffer = new StringBuilder();
+        long count = 0;
+        long sink = 0;
+        buffer.clear();
+        while (channel.read(buffer) > 0) {
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            messageBuffer.append(new String(bytes, StandardCharsets.UTF_8));
+            int newlineIndex;
+            while ((newlineIndex = messageBuffer.indexOf("\n")) != -1) {
+                String completeMessage = messageBuffer.substring(0, newlineIndex).trim();
+                messageBuffer.delete(0, newlineIndex + 1);
+                sink += completeMessage.length();
+                count++;
+            }
+            buffer.clear();
+        }
+        return sink > 0 ? count : -1;
+    }
+
+    private static long inboundText(ChunkedChannel channel, boolean strings) throws IOException {
+        InboundBuffer inbound = new InboundBuffer(new BufferPool(8192, 16), 64 * 1024);
+        long count = 0;
+        long sink = 0;
+        while (inbound.readFrom(channel) > 0) {
+            while (inbound.nextLine()) {
+                sink += strings ? inbound.payloadString().length() : inbound.payloadLength();
+                count++;
+            }
+            inbound.releaseIfEmpty();
+        }
+        return sink > 0 ? count : -1;
+    }
+
+    private static long inboundBinary(ChunkedChannel channel, boolean strings) throws IOException {
+        InboundBuffer inbound = new InboundBuffer(new BufferPool(8192, 16), 64 * 1024);
+        long count = 0;
+        long sink = 0;
+        while (inbound.readFrom(channel) > 0) {
+            while (inbound.nextFrame()) {
+                sink += strings ? inbound.payloadString().length() : inbound.payloadLength();
+                count++;
+            }
+            inbound.releaseIfEmpty();
+        }
+        return sink > 0 ? count : -1;
+    }
+
+    // Hands out a prepared byte stream at most CHUNK bytes per read, like a socket would
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+
+        ChunkedChannel(ByteBuffer source) {
+            this.source = source.duplicate();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(CHUNK, dst.remaining()), source.remaining());
+            dst.put(dst.position(), source, source.position(), n);
+            dst.position(dst.position() + n);
+            source.position(source.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
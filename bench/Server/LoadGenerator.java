@@ -0,0 +1,496 @@
+package Server;
+
+import Shared.User;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load generator: opens many simulated text-protocol clients against a server on
+// localhost, registers them, spreads them over rooms and drives chat and status traffic at fixed
+// rates. Every chat line carries its send time, so receivers record end-to-end delivery latency.
+// With nodes > 1 clients are spread over a cluster and latency is also split by whether the
+// message crossed the inter-node bus.
+//
+// ant bench -Dbench.class=Server.LoadGenerator -Dbench.args="clients=10000 rate=2000 duration=30"
+//
+// Options, as key=value:
+//   server=nio|vt|none  in-process server to start; none targets host:port       [nio]
+//   config=<file>       server.properties for the in-process server (default: no journal, no rate limits)
+//   host, port          where to connect                                         [127.0.0.1, 5700]
+//   nodes               cluster nodes on port, port+1, ...; in process they are linked on
+//                       clusterPort, clusterPort+1, ... and clients go round-robin   [1]
+//   clusterPort         first in-process node's cluster port                     [port + 100]
+//   clients             simulated clients                                        [1000]
+//   io=nio|vt           client side: selector threads, or a virtual thread each  [nio]
+//   rooms               rooms to spread clients over; 0 keeps everyone in the lobby [10]
+//   roomsPerClient      rooms each client joins; it talks in the last one         [1]
+//   rate                chat messages per second, all clients together           [1000]
+//   statusRate          /status changes per second                               [0]
+//   size                chat line length in bytes                                [64]
+//   warmup, duration    seconds                                                  [5, 30]
+//   report=<file>       appends one JSON line per run, for comparing builds
+//
+// More than ~28k clients need a raised fd limit (ulimit -n); clients spread across 127.0.0.x
+// source addresses so the ephemeral port range is not the limit.
+public class LoadGenerator {
+    private static final int CLIENTS_PER_SOURCE_ADDRESS = 20000;
+    private static final byte[] MARKER = ": lat ".getBytes(StandardCharsets.UTF_8);
+    private static final String[] STATUSES = {"Online", "Away", "Busy"};
+
+    private final Properties options;
+    private final int clientCount;
+    private final int nodes;
+    private final int rooms;
+    private final int roomsPerClient;
+    private final int rate;
+    private final int statusRate;
+    private final int size;
+    private final boolean virtualThreads;
+    private final Random random = new Random(42);
+    private final List<SimClient> clients = new ArrayList<>();
+    private final int[] roomSizes;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram sameNode = new LatencyHistogram();  // sender and receiver on one node
+    private final LatencyHistogram crossNode = new LatencyHistogram(); // over the cluster bus
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private volatile long lastReadMillis = System.currentTimeMillis();
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+    private long expected;
+    private long sendStalls;
+
+    LoadGenerator(Properties options) {
+        this.options = options;
+        this.clientCount = intOption("clients", 1000);
+        this.nodes = Math.max(1, intOption("nodes", 1));
+        this.rooms = intOption("rooms", 10);
+        this.roomsPerClient = rooms == 0 ? 0 : Math.min(rooms, intOption("roomsPerClient", 1));
+        this.rate = intOption("rate", 1000);
+        this.statusRate = intOption("statusRate", 0);
+        this.size = Math.max(32, intOption("size", 64));
+        this.virtualThreads = options.getProperty("io", "nio").equals("vt");
+        this.roomSizes = new int[rooms + 1]; // last slot is the lobby
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties options = new Properties();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.err.println("Expected key=value, got " + arg);
+                System.exit(2);
+            }
+            options.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws Exception {
+        String host = options.getProperty("host", "127.0.0.1");
+        int port = intOption("port", 5700);
+        String serverEngine = options.getProperty("server", "nio");
+        List<ChatEngine> engines = new ArrayList<>();
+        List<Thread> serverThreads = new ArrayList<>();
+        if (!serverEngine.equals("none")) {
+            for (int node = 0; node < nodes; node++) {
+                ChatEngine engine = startServer(serverEngine, port, node);
+                Thread serverThread = new Thread(engineRunner(engine), "loadgen-server-" + node);
+                serverThread.start();
+                engines.add(engine);
+                serverThreads.add(serverThread);
+            }
+            Thread.sleep(nodes > 1 ? 1500 : 500); // cluster links come up with a short backoff
+        }
+
+        List<Reader> readers = new ArrayList<>();
+        if (!virtualThreads) {
+            for (int i = 0; i < Math.max(2, Runtime.getRuntime().availableProcessors() / 2); i++) {
+                Reader reader = new Reader(i);
+                readers.add(reader);
+                reader.thread.start();
+            }
+        }
+
+        long connectStart = System.nanoTime();
+        try {
+            for (int i = 0; i < clientCount; i++) {
+                SimClient client = connect(i, host, port + i % nodes);
+                clients.add(client);
+                if (virtualThreads) {
+                    Thread.ofVirtual().name("loadgen-client").start(client::readLoop);
+                } else {
+                    readers.get(i % readers.size()).add(client);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("connect failed after " + clients.size() + " clients: " + e.getMessage()
+                + " (check ulimit -n)");
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+
+        // Registration and joins broadcast to everyone; let that settle before sending
+        long settleStart = System.nanoTime();
+        waitForQuiet(1000, 300_000);
+        long settleMillis = (System.nanoTime() - settleStart) / 1_000_000;
+
+        int warmup = intOption("warmup", 5);
+        int duration = intOption("duration", 30);
+        drive(warmup, false);
+        measureFromNanos = System.nanoTime();
+        long measureStart = System.nanoTime();
+        long[] sent = drive(duration, true);
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (delivered.sum() < expected && System.currentTimeMillis() < deadline
+                && System.currentTimeMillis() - lastReadMillis < 5000) {
+            Thread.sleep(50);
+        }
+        report(serverEngine, connectMillis, settleMillis, sent, seconds);
+
+        for (Reader reader : readers) {
+            reader.stop();
+        }
+        for (SimClient client : clients) {
+            client.channel.close();
+        }
+        for (ChatEngine engine : engines) {
+            engine.stop();
+        }
+        for (Thread serverThread : serverThreads) {
+            serverThread.join();
+        }
+    }
+
+    private ChatEngine startServer(String name, int port, int node) throws IOException {
+        ServerConfig config;
+        String file = options.getProperty("config");
+        if (file != null) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(Paths.get(file))) {
+                properties.load(in);
+            }
+            config = ServerConfig.load(properties);
+        } else {
+            config = new ServerConfig();
+            config.setJournalDirectory(null);
+            config.setMetricsIntervalMillis(0);
+            config.setMessagesPerSecond(0); // measure the server, not its flood protection
+            config.setBytesPerSecond(0);
+            config.setFanOutBytesPerSecond(0);
+        }
+        config.setPort(port + node);
+        if (nodes > 1) {
+            int clusterPort = intOption("clusterPort", port + 100);
+            StringBuilder peers = new StringBuilder();
+            for (int other = 0; other < nodes; other++) {
+                if (other != node) {
+                    peers.append(peers.length() == 0 ? "" : ",").append("127.0.0.1:").append(clusterPort + other);
+                }
+            }
+            config.setClusterNodeId("n" + node);
+            config.setClusterPort(clusterPort + node);
+            config.setClusterPeers(peers.toString());
+            if (config.getJournalDirectory() != null) {
+                config.setJournalDirectory(config.getJournalDirectory() + "-n" + node);
+            }
+            if (config.getMetricsFile() != null) {
+                config.setMetricsFile(config.getMetricsFile() + "-n" + node);
+            }
+        }
+        ServerListener silent = new ServerListener() {
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void updateClientList(Map<SocketChannel, User> clients) {
+            }
+        };
+        return name.equals("vt") ? new VirtualThreadChatServer(config, silent) : new ChatServer(config, silent);
+    }
+
+    private static Runnable engineRunner(ChatEngine engine) {
+        return () -> {
+            try {
+                engine.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        };
+    }
+
+    // Connects, registers and joins rooms; the join commands are queued before any chat
+    private SimClient connect(int index, String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        if (host.equals("127.0.0.1")) {
+            channel.bind(new InetSocketAddress("127.0.0." + (2 + index / CLIENTS_PER_SOURCE_ADDRESS), 0));
+        }
+        channel.connect(new InetSocketAddress(host, port));
+        SimClient client = new SimClient(channel, "lg" + index, index % nodes);
+        StringBuilder commands = new StringBuilder("/register ").append(client.name).append('\n');
+        int talkRoom = rooms; // the lobby
+        if (roomsPerClient > 0) {
+            int first = random.nextInt(rooms);
+            for (int i = 0; i < roomsPerClient; i++) {
+                talkRoom = (first + i) % rooms;
+                commands.append("/join room").append(talkRoom).append('\n');
+                roomSizes[talkRoom]++;
+            }
+        }
+        roomSizes[rooms]++;
+        client.talkRoom = talkRoom;
+        client.write(ByteBuffer.wrap(commands.toString().getBytes(StandardCharsets.UTF_8)));
+        if (!virtualThreads) {
+            channel.configureBlocking(false);
+        }
+        return client;
+    }
+
+    // Sends chat lines and status changes at the configured rates for `seconds`.
+    // Returns {chat lines, status changes} sent.
+    private long[] drive(int seconds, boolean counted) throws IOException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long chatInterval = rate > 0 ? 1_000_000_000L / rate : 0;
+        long statusInterval = statusRate > 0 ? 1_000_000_000L / statusRate : 0;
+        long nextChat = rate > 0 ? start : Long.MAX_VALUE;
+        long nextStatus = statusRate > 0 ? start : Long.MAX_VALUE;
+        long chats = 0;
+        long statuses = 0;
+        byte[] padding = new byte[size];
+        Arrays.fill(padding, (byte) 'x');
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (now >= nextChat) {
+                SimClient client = clients.get(random.nextInt(clients.size()));
+                byte[] stamp = ("lat " + System.nanoTime() + "@" + client.node + " ").getBytes(StandardCharsets.US_ASCII);
+                ByteBuffer line = ByteBuffer.allocate(Math.max(size, stamp.length + 1));
+                line.put(stamp).put(padding, 0, line.remaining() - 1).put((byte) '\n').flip();
+                client.write(line);
+                if (counted) {
+                    expected += roomSizes[client.talkRoom];
+                }
+                chats++;
+                nextChat += chatInterval;
+            } else if (now >= nextStatus) {
+                SimClient client = clients.get(random.nextInt(clients.size()));
+                String status = STATUSES[random.nextInt(STATUSES.length)];
+                client.write(ByteBuffer.wrap(("/status " + status + "\n").getBytes(StandardCharsets.UTF_8)));
+                statuses++;
+                nextStatus += statusInterval;
+            } else {
+                LockSupport.parkNanos(Math.min(Math.min(nextChat, nextStatus), end) - now);
+            }
+        }
+        return new long[] {chats, statuses};
+    }
+
+    private void waitForQuiet(long quietMillis, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline && System.currentTimeMillis() - lastReadMillis < quietMillis) {
+            Thread.sleep(100);
+        }
+    }
+
+    private void report(String server, long connectMillis, long settleMillis, long[] sent, double seconds)
+            throws IOException {
+        long got = delivered.sum();
+        String io = virtualThreads ? "vt" : "nio";
+        System.out.printf("server=%s io=%s clients=%d rooms=%dx%d rate=%d/s statusRate=%d/s size=%d%n",
+            server, io, clients.size(), rooms, roomsPerClient, rate, statusRate, size);
+        System.out.printf("connected in %d ms, registration and joins settled in %d ms%n",
+            connectMillis, settleMillis);
+        System.out.printf("sent      %d chat (%.0f/s), %d status, %d send stalls, %d disconnects%n",
+            sent[0], sent[0] / seconds, sent[1], sendStalls, disconnects.sum());
+        System.out.printf("delivered %d of %d (%.2f%%), %.0f/s%n",
+            got, expected, expected == 0 ? 100.0 : 100.0 * got / expected, got / seconds);
+        System.out.printf("latency   p50 %d  p90 %d  p99 %d  p99.9 %d  max %d us%n",
+            latency.percentile(50), latency.percentile(90), latency.percentile(99),
+            latency.percentile(99.9), latency.getMax());
+        if (nodes > 1) {
+            System.out.printf("  same node   p50 %d  p99 %d  max %d us%n",
+                sameNode.percentile(50), sameNode.percentile(99), sameNode.getMax());
+            System.out.printf("  cross node  p50 %d  p99 %d  max %d us%n",
+                crossNode.percentile(50), crossNode.percentile(99), crossNode.getMax());
+        }
+
+        String file = options.getProperty("report");
+        if (file != null) {
+            String json = String.format("{\"timestamp\":%d,\"server\":\"%s\",\"io\":\"%s\",\"nodes\":%d,\"clients\":%d,"
+                    + "\"rooms\":%d,\"roomsPerClient\":%d,\"rate\":%d,\"statusRate\":%d,\"size\":%d,"
+                    + "\"seconds\":%.1f,\"connectMillis\":%d,\"settleMillis\":%d,\"sent\":%d,\"statusSent\":%d,"
+                    + "\"expected\":%d,\"delivered\":%d,\"sendStalls\":%d,\"disconnects\":%d,"
+                    + "\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d,"
+                    + "\"sameNodeP99\":%d,\"crossNodeP99\":%d}%n",
+                System.currentTimeMillis(), server, io, nodes, clients.size(), rooms, roomsPerClient, rate, statusRate,
+                size, seconds, connectMillis, settleMillis, sent[0], sent[1], expected, got, sendStalls,
+                disconnects.sum(), latency.percentile(50), latency.percentile(90), latency.percentile(99),
+                latency.percentile(99.9), latency.getMax(), sameNode.percentile(99), crossNode.percentile(99));
+            Files.write(Paths.get(file), json.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private int intOption(String key, int defaultValue) {
+        String value = options.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    // Scans one read's worth of bytes for "<name>: lat <nanos>@<node>" lines
+    private void consume(SimClient client, ByteBuffer buffer) {
+        long now = System.nanoTime();
+        lastReadMillis = System.currentTimeMillis();
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                long sent = client.timestamp();
+                if (sent >= measureFromNanos) {
+                    latency.record((now - sent) / 1000);
+                    (client.stampNode == client.node ? sameNode : crossNode).record((now - sent) / 1000);
+                    delivered.increment();
+                }
+                client.length = 0;
+            } else if (client.length < client.line.length) {
+                client.line[client.length++] = b;
+            }
+        }
+    }
+
+    // One simulated user. Only the driver thread writes; one reader (or its own virtual thread) reads.
+    private class SimClient {
+        final SocketChannel channel;
+        final String name;
+        final int node; // the cluster node it is connected to
+        final byte[] line = new byte[96]; // start of the current line; enough to find the timestamp
+        int length;
+        int talkRoom;
+        int stampNode; // the sender's node, from the line timestamp() last parsed
+
+        SimClient(SocketChannel channel, String name, int node) {
+            this.channel = channel;
+            this.name = name;
+            this.node = node;
+        }
+
+        // Non-blocking channels may take a line in pieces when the server falls behind
+        void write(ByteBuffer bytes) throws IOException {
+            boolean stalled = false;
+            while (bytes.hasRemaining()) {
+                if (channel.write(bytes) == 0 && !stalled) {
+                    stalled = true;
+                    sendStalls++;
+                }
+            }
+        }
+
+        void readLoop() {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            try {
+                while (channel.read(buffer.clear()) >= 0) {
+                    consume(this, buffer.flip());
+                }
+            } catch (IOException e) {
+                // closed at the end of the run
+            }
+            disconnects.increment();
+        }
+
+        long timestamp() {
+            outer:
+            for (int i = 0; i + MARKER.length < length; i++) {
+                for (int j = 0; j < MARKER.length; j++) {
+                    if (line[i + j] != MARKER[j]) {
+                        continue outer;
+                    }
+                }
+                long value = 0;
+                int k = i + MARKER.length;
+                for (; k < length && line[k] >= '0' && line[k] <= '9'; k++) {
+                    value = value * 10 + (line[k] - '0');
+                }
+                stampNode = 0;
+                if (k < length && line[k] == '@') {
+                    while (++k < length && line[k] >= '0' && line[k] <= '9') {
+                        stampNode = stampNode * 10 + (line[k] - '0');
+                    }
+                }
+                return value;
+            }
+            return -1;
+        }
+    }
+
+    // Selector thread reading a share of the non-blocking clients
+    private class Reader implements Runnable {
+        final Thread thread;
+        final Selector selector;
+        final Queue<SimClient> pending = new ConcurrentLinkedQueue<>();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        volatile boolean running = true;
+
+        Reader(int id) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "loadgen-reader-" + id);
+            thread.setDaemon(true);
+        }
+
+        void add(SimClient client) {
+            pending.add(client);
+            selector.wakeup();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            selector.wakeup();
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(100);
+                    SimClient client;
+                    while ((client = pending.poll()) != null) {
+                        client.channel.register(selector, SelectionKey.OP_READ, client);
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SimClient owner = (SimClient) key.attachment();
+                        if (owner.channel.read(buffer.clear()) < 0) {
+                            key.cancel();
+                            disconnects.increment();
+                        } else {
+                            consume(owner, buffer.flip());
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
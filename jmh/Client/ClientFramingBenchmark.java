@@ -0,0 +1,85 @@
+package Client;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Client read path, as in ChatClient.listenForMessages. The legacy case is the old text loop
+// (char[] reads appended to a StringBuilder, split on indexOf("\n")); the client now reads
+// length-prefixed frames with FrameCodec.read. Scores are per message.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientFramingBenchmark {
+    static final int MESSAGES = 1000;
+
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    private byte[] lines;
+    private byte[] frames;
+
+    @Setup
+    public void setUp() throws IOException {
+        String message = "x".repeat(messageSize);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(binary);
+        for (int i = 0; i < MESSAGES; i++) {
+            text.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+            FrameCodec.write(out, FrameType.CHAT, message);
+        }
+        lines = text.toByteArray();
+        frames = binary.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void legacyLineSplitting(Blackhole blackhole) throws IOException {
+        Reader in = new InputStreamReader(new ByteArrayInputStream(lines), StandardCharsets.UTF_8);
+        StringBuilder messageBuffer = new StringBuilder();
+        char[] readBuffer = new char[1024];
+        int charsRead;
+        while ((charsRead = in.read(readBuffer)) != -1) {
+            messageBuffer.append(readBuffer, 0, charsRead);
+            int newlineIndex;
+            while ((newlineIndex = messageBuffer.indexOf("\n")) != -1) {
+                blackhole.consume(messageBuffer.substring(0, newlineIndex).trim());
+                messageBuffer.delete(0, newlineIndex + 1);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void frameCodecRead(Blackhole blackhole) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames));
+        for (int i = 0; i < MESSAGES; i++) {
+            blackhole.consume(FrameCodec.read(in));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package Client;
+
+import Shared.User;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parsing a USERLIST snapshot of `users` entries on the client. The legacy case is the old
+// handleUserList (split on ',' then again on ':' per entry); parseUserList is today's, which
+// fills the client's name -> status roster.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserListParseBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int users;
+
+    @Param({"8", "32"})
+    public int nameLength;
+
+    private String snapshot;
+    private final Map<String, String> roster = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        StringBuilder payload = new StringBuilder("42");
+        for (int i = 0; i < users; i++) {
+            String name = "user" + i;
+            name += "_".repeat(Math.max(0, nameLength - name.length()));
+            payload.append(',').append(name).append(':').append(i % 3 == 0 ? "Away" : "Online");
+        }
+        snapshot = payload.toString();
+    }
+
+    @Benchmark
+    public List<User> legacySplit() {
+        List<User> userList = new ArrayList<>();
+        for (String part : snapshot.substring(snapshot.indexOf(',') + 1).split(",")) {
+            if (!part.isEmpty()) {
+                String[] userInfo = part.split(":");
+                User user = new User(userInfo[0]);
+                if (userInfo.length > 1) {
+                    user.setStatus(userInfo[1]);
+                }
+                if (!user.getUsername().startsWith("Guest")) {
+                    userList.add(user);
+                }
+            }
+        }
+        return userList;
+    }
+
+    @Benchmark
+    public Map<String, String> parseUserList() {
+        ChatClient.parseUserList(snapshot, roster);
+        return roster;
+    }
+}
@@ -0,0 +1,65 @@
+package Server;
+
+import Shared.FrameType;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Turning one broadcast into bytes for every recipient. The legacy case is the old
+// per-recipient getBytes(); OutboundFrame encodes once per wire format and hands out views.
+// Scores are per broadcast.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastEncodeBenchmark {
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    @Param({"10", "100", "1000"})
+    public int users;
+
+    private String message;
+
+    @Setup
+    public void setUp() {
+        message = "alice: " + "x".repeat(messageSize);
+    }
+
+    @Benchmark
+    public void legacyPerRecipient(Blackhole blackhole) {
+        String formattedMessage = message + "\n";
+        for (int i = 0; i < users; i++) {
+            blackhole.consume(formattedMessage.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void encodeOnceText(Blackhole blackhole) {
+        OutboundFrame frame = new OutboundFrame(FrameType.CHAT, message, false);
+        for (int i = 0; i < users; i++) {
+            blackhole.consume(frame.encoded(WireFormat.TEXT).duplicate());
+        }
+    }
+
+    @Benchmark
+    public void encodeOnceBinary(Blackhole blackhole) {
+        OutboundFrame frame = new OutboundFrame(FrameType.CHAT, message, false);
+        for (int i = 0; i < users; i++) {
+            blackhole.consume(frame.encoded(WireFormat.BINARY).duplicate());
+        }
+    }
+}
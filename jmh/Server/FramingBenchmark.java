@@ -0,0 +1,131 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Server read path: splitting a socket's byte stream into messages, as readMessage does.
+// The legacy case is the StringBuilder/indexOf("\n") loop ChatServer.readMessage used to run.
+// Input arrives in 1460 byte (one TCP segment) reads; scores are per message.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramingBenchmark {
+    static final int MESSAGES = 1000;
+    private static final int CHUNK = 1460;
+
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    private ByteBuffer lines;
+    private ByteBuffer frames;
+    private InboundBuffer inbound;
+
+    @Setup
+    public void setUp() {
+        String message = "x".repeat(messageSize);
+        lines = ByteBuffer.allocate(MESSAGES * (messageSize + 1));
+        frames = ByteBuffer.allocate(MESSAGES * (messageSize + FrameCodec.HEADER_LENGTH));
+        for (int i = 0; i < MESSAGES; i++) {
+            lines.put((message + "\n").getBytes(StandardCharsets.UTF_8));
+            frames.put(FrameCodec.encode(FrameType.CHAT, message, false));
+        }
+        lines.flip();
+        frames.flip();
+        inbound = new InboundBuffer(new BufferPool(8192, 16), 64 * 1024);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void legacyStringBuilder(Blackhole blackhole) throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(lines);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        StringBuilder messageBuffer = new StringBuilder();
+        while (channel.read(buffer) > 0) {
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            messageBuffer.append(new String(bytes, StandardCharsets.UTF_8));
+            int newlineIndex;
+            while ((newlineIndex = messageBuffer.indexOf("\n")) != -1) {
+                blackhole.consume(messageBuffer.substring(0, newlineIndex).trim());
+                messageBuffer.delete(0, newlineIndex + 1);
+            }
+            buffer.clear();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void inboundText(Blackhole blackhole) throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(lines);
+        while (inbound.readFrom(channel) > 0) {
+            while (inbound.nextLine()) {
+                blackhole.consume(inbound.payloadString());
+            }
+            inbound.releaseIfEmpty();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void inboundBinary(Blackhole blackhole) throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(frames);
+        while (inbound.readFrom(channel) > 0) {
+            while (inbound.nextFrame()) {
+                blackhole.consume(inbound.payloadString());
+            }
+            inbound.releaseIfEmpty();
+        }
+    }
+
+    // Hands out a prepared byte stream at most CHUNK bytes per read, like a socket would
+    static class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+
+        ChunkedChannel(ByteBuffer source) {
+            this.source = source.duplicate();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(CHUNK, dst.remaining()), source.remaining());
+            dst.put(dst.position(), source, source.position(), n);
+            dst.position(dst.position() + n);
+            source.position(source.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
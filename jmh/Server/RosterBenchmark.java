@@ -0,0 +1,70 @@
+package Server;
+
+import Shared.User;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Server side of a roster change with `users` online. The legacy case is the old
+// updateUserList: rebuild "/userlist,..." and encode it again for every client. Presence now
+// sends a one-entry delta to everyone and a full snapshot only to the client that needs one.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RosterBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int users;
+
+    private final List<User> clients = new ArrayList<>();
+    private Presence presence;
+    private int changes;
+
+    @Setup
+    public void setUp() {
+        presence = new Presence(null, new ServerConfig()); // never started, so no ticks
+        for (int i = 0; i < users; i++) {
+            User user = new User("user" + i);
+            clients.add(user);
+            presence.joined(user.getUsername(), user.getStatus());
+        }
+        presence.applyPending();
+    }
+
+    @Benchmark
+    public void legacyUpdateUserList(Blackhole blackhole) {
+        StringBuilder userList = new StringBuilder("/userlist");
+        for (User user : clients) {
+            userList.append(",").append(user.getUsername()).append(":").append(user.getStatus());
+        }
+        for (int i = 0; i < users; i++) {
+            blackhole.consume((userList.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public String presenceDelta() {
+        presence.statusChanged("user" + (changes++ % users), (changes & 1) == 0 ? "Online" : "Away");
+        return presence.applyPending();
+    }
+
+    @Benchmark
+    public String presenceSnapshot() {
+        return presence.snapshotPayload();
+    }
+}
@@ -1,23 +1,52 @@
 package Client;
 
+import Shared.Frame;
+import Shared.FrameCodec;
+import Shared.FrameInflater;
+import Shared.FrameType;
+import Shared.Message;
 import Shared.User;
-import java.io.*;
-import java.net.Socket;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import javax.swing.SwingUtilities;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatClient {
-    private Socket socket;
+    private static final int SEND_QUEUE_FRAMES = 1024;      // frames waiting to be written before sends are refused
+    private static final int MAX_RECONNECT_ATTEMPTS = 8;
+    private static final long RECONNECT_BASE_MS = 500;      // the first retry waits up to this long, doubling after
+    private static final long RECONNECT_MAX_MS = 30_000;
+    private volatile Transport transport; // null before the first connect
+    private String host;
+    private int port;
     private User currentUser;
     private final ChatForm chatForm;
-    private PrintWriter out;
-    private BufferedReader in;
-    private final List<User> userList = new ArrayList<>();
+    private FrameInflater inflater; // this connection's side of the compression, used by the listener
+    // Local copy of the server roster (name -> status), only touched by the listener thread
+    private final Map<String, String> roster = new HashMap<>();
+    private long rosterVersion = -1; // -1 until the first snapshot
+    private boolean snapshotRequested;
+    private final Map<String, Long> roomSequences = new HashMap<>(); // last message number seen per room
+    private static final int HISTORY_PAGE = 100;
+    private static final long HISTORY_PAGE_TIMEOUT_MS = 10_000; // a request the server dropped stops blocking the next
+    // A page of history before message olderBefore of olderRoom is on its way; null if none is
+    private volatile String olderRoom;
+    private volatile long olderBefore;
+    private volatile long olderRequestedAt;
+    private final List<Message> olderPage = new ArrayList<>(); // listener thread only
+    // Resume state: the server numbers every frame except SESSION and USERLIST in the same way
+    private volatile String sessionToken;
+    private volatile long framesReceived;
     private volatile boolean shouldReconnect = true;
-    private int reconnectAttempts = 0;
-    private final int MAX_RECONNECT_ATTEMPTS = 5;
-    private final long RECONNECT_DELAY_MS = 5000; // 5 seconds
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile boolean sendRefused; // the user was told a message did not go out
 
     public ChatClient(ChatForm chatForm) {
         this.chatForm = chatForm;
@@ -25,131 +54,359 @@ public class ChatClient {
 
     public boolean connect(String host, int port, String username) {
         try {
-            socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            
-            currentUser = new User(username);
-            chatForm.setChatClient(this);
-            sendMessage("/register " + username);
-            
-            new Thread(this::listenForMessages).start();
-            chatForm.updateConnectionStatus(true);
+            open(host, port, username);
             return true;
         } catch (IOException e) {
             chatForm.showError("Connection failed: " + e.getMessage());
             return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // The old connection's reader is gone before this one's state is reset
+    private void open(String host, int port, String username) throws IOException, InterruptedException {
+        Transport old = transport;
+        if (old != null) {
+            old.close();
+            old.awaitReader();
+        }
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // the writer batches already
+        this.host = host;
+        this.port = port;
+        currentUser = new User(username);
+        rosterVersion = -1;
+        snapshotRequested = false;
+        olderRoom = null;
+        olderPage.clear();
+        chatForm.setChatClient(this);
+        if (inflater != null) {
+            inflater.end();
         }
+        inflater = new FrameInflater();
+        Transport t = new Transport(channel, SEND_QUEUE_FRAMES);
+        t.send(FrameCodec.handshake(FrameCodec.VERSION));
+        transport = t;
+        sendFrame(FrameType.COMPRESS, FrameCodec.DEFLATE); // a version 2 server skips it as an unknown type
+        if (sessionToken != null) {
+            // The server answers with SESSION: the same token if it kept our session
+            sendFrame(FrameType.RESUME, sessionToken + " " + framesReceived);
+        } else {
+            sendFrame(FrameType.REGISTER, username);
+        }
+
+        t.start(this::listenForMessages);
+        chatForm.updateConnectionStatus(true);
     }
 
+    // Told once until a message goes out again
     public void sendMessage(String message) {
-        out.println(message);
+        if (sendFrame(FrameType.CHAT, message)) {
+            sendRefused = false;
+        } else if (!sendRefused) {
+            sendRefused = true;
+            chatForm.displayMessage(isConnected() ? "[SYSTEM] Not sent: too many messages are waiting to go out"
+                : "[SYSTEM] Not sent: not connected");
+        }
+    }
+
+    // The chat view scrolled to its top; one page at a time. The server sends messages
+    // before-HISTORY_PAGE..before-1 and nothing newer, or one of the replies isHistoryReply() knows.
+    public void requestOlder(String room, long before) {
+        if ((olderRoom != null && System.currentTimeMillis() - olderRequestedAt < HISTORY_PAGE_TIMEOUT_MS)
+                || before <= 1) {
+            return;
+        }
+        olderBefore = before;
+        olderRequestedAt = System.currentTimeMillis();
+        olderRoom = room;
+        if (!sendFrame(FrameType.CHAT, "/history " + room + " before " + before + " " + HISTORY_PAGE)) {
+            olderRoom = null;
+        }
     }
 
     public void setStatus(String status) {
-        sendMessage("/status " + status);
+        sendFrame(FrameType.STATUS, status);
+    }
+
+    // Queues the frame without waiting; false if it was refused
+    private boolean sendFrame(FrameType type, String payload) {
+        Transport t = transport;
+        return t != null && t.send(FrameCodec.encode(type, payload, false));
     }
 
     public User getCurrentUser() {
         return currentUser;
     }
     
-    private void listenForMessages() {
+    private void listenForMessages(Transport t) {
         try {
-            StringBuilder messageBuffer = new StringBuilder();
-            char[] readBuffer = new char[1024];
-            int charsRead;
-
-            while ((charsRead = in.read(readBuffer)) != -1) {
-                messageBuffer.append(readBuffer, 0, charsRead);
-
-                // Process all complete messages (delimited by newline)
-                int newlineIndex;
-                while ((newlineIndex = messageBuffer.indexOf("\n")) != -1) {
-                    String completeMessage = messageBuffer.substring(0, newlineIndex).trim();
-                    messageBuffer.delete(0, newlineIndex + 1);
-
-                    if (completeMessage.startsWith("/userlist")) {
-                        handleUserList(completeMessage);
-                    } else {
-                        chatForm.displayMessage(completeMessage);
-                    }
+            DataInputStream in = t.openInput();
+            byte[] ack = new byte[FrameCodec.HANDSHAKE_LENGTH];
+            in.readFully(ack);
+            FrameCodec.parseHandshake(ack);
+
+            // Frames are length-prefixed, so no scanning for delimiters
+            while (true) {
+                Frame frame = FrameCodec.read(in, inflater);
+                try {
+                    handleFrame(frame);
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    malformedFrame(frame);
                 }
             }
-            handleDisconnection();
         } catch (IOException e) {
-            handleDisconnection();
+            t.abort();
+            if (!t.isStopped() && t == transport) {
+                handleDisconnection();
+            }
+        }
+    }
+
+    private void handleFrame(Frame frame) {
+        if (frame.getType() == FrameType.COMPRESS) {
+            return; // frames are marked compressed or not, so the answer needs no action
+        }
+        if (frame.getType() == FrameType.SESSION) {
+            handleSession(frame.getPayload());
+            return;
+        }
+        if (frame.getType() == FrameType.USERLIST) {
+            handleUserList(frame.getPayload());
+            return;
+        }
+        framesReceived++;
+        if (frame.getType() == FrameType.PING) {
+            sendFrame(FrameType.PONG, "");
+        } else if (frame.getType() == FrameType.PRESENCE) {
+            handlePresence(frame.getPayload());
+        } else if (frame.getType() == FrameType.ROOM) {
+            handleRoomMessage(frame.getPayload());
+        } else {
+            if (frame.getType() == FrameType.SYSTEM && isHistoryReply(frame.getPayload())) {
+                finishOlderPage(); // e.g. "No history": the page is over, and the user did not ask
+                return;
+            }
+            chatForm.displayMessage(frame.getPayload());
+        }
+    }
+
+    // A frame we cannot parse is dropped silently rather than taking the listener down. The
+    // roster may be half applied, so deltas wait for a fresh snapshot, asked for once until one parses.
+    private void malformedFrame(Frame frame) {
+        if (frame.getType() == FrameType.PRESENCE || frame.getType() == FrameType.USERLIST) {
+            rosterVersion = -1;
+            if (!snapshotRequested) {
+                snapshotRequested = true;
+                sendFrame(FrameType.USERLIST, "");
+            }
+        }
+    }
+
+    private void handleSession(String token) {
+        if (token.equals(sessionToken)) {
+            chatForm.displayMessage("[SYSTEM] Session resumed");
+            return;
+        }
+        boolean resumeRefused = sessionToken != null;
+        sessionToken = token;
+        framesReceived = 0;
+        if (resumeRefused) {
+            // Too late or too far behind: start over as a new client
+            roomSequences.clear();
+            sendFrame(FrameType.REGISTER, currentUser.getUsername());
         }
     }
 
+    // "room seq text"
+    private void handleRoomMessage(String message) {
+        int roomEnd = message.indexOf(' ');
+        int seqEnd = message.indexOf(' ', roomEnd + 1);
+        String room = message.substring(0, roomEnd);
+        long seq = Long.parseLong(message.substring(roomEnd + 1, seqEnd));
+        String text = message.substring(seqEnd + 1);
+        int colon = text.indexOf(": ");
+        Message line = colon > 0 ? new Message(room, seq, text.substring(0, colon), text.substring(colon + 2))
+            : new Message(room, seq, null, text);
+        Long last = roomSequences.get(room);
+        if (room.equals(olderRoom) && last != null && seq <= last) {
+            // Answer to requestOlder: what is above the view goes there; anything else is already
+            // shown and dropped. The page ends with message olderBefore-1.
+            if (seq < olderBefore) {
+                olderPage.add(line);
+            }
+            if (seq >= olderBefore - 1) {
+                finishOlderPage();
+            }
+            return;
+        }
+        if (last == null || seq > last) { // older numbers are /history replies
+            roomSequences.put(room, seq);
+            if (last != null && seq > last + 1) {
+                chatForm.displayMessage("[SYSTEM] Missed " + (seq - last - 1) + " message(s) in #" + room);
+            }
+        }
+        chatForm.displayMessage(line);
+    }
+
+    // The server's answers to a /history that sends no messages
+    private boolean isHistoryReply(String text) {
+        String room = olderRoom;
+        return room != null && (text.equals("No history for #" + room) || text.equals("Not in #" + room)
+            || text.startsWith("Usage: /history"));
+    }
+
+    private void finishOlderPage() {
+        if (!olderPage.isEmpty()) {
+            chatForm.displayOlder(new ArrayList<>(olderPage));
+            olderPage.clear();
+        }
+        olderRoom = null;
+    }
+
+    // Full snapshot: "version,name:status,..."; the view works out what changed
     private void handleUserList(String message) {
-        SwingUtilities.invokeLater(() -> {
-            String[] parts = message.substring(10).split(",");
-            userList.clear();
-
-            for (String part : parts) {
-                if (!part.isEmpty()) {
-                    String[] userInfo = part.split(":");
-                    if (userInfo.length >= 1) {
-                        User user = new User(userInfo[0]);
-                        if (userInfo.length > 1) {
-                            user.setStatus(userInfo[1]);
-                        }
-                        // Skip guest users in display
-                        if (!user.getUsername().startsWith("Guest")) {
-                            userList.add(user);
-                        }
-                    }
-                }
+        rosterVersion = parseUserList(message, roster);
+        snapshotRequested = false;
+        Map<String, String> shown = new HashMap<>();
+        for (Map.Entry<String, String> entry : roster.entrySet()) {
+            if (isShown(entry.getKey())) {
+                shown.put(entry.getKey(), entry.getValue());
+            }
+        }
+        chatForm.showRoster(shown);
+    }
+
+    // Replaces the roster's contents with the snapshot's; returns the snapshot version
+    static long parseUserList(String message, Map<String, String> roster) {
+        roster.clear();
+        int comma = message.indexOf(',');
+        if (comma < 0) {
+            return Long.parseLong(message);
+        }
+        long version = Long.parseLong(message.substring(0, comma));
+        while (comma < message.length()) {
+            int next = message.indexOf(',', comma + 1);
+            if (next < 0) {
+                next = message.length();
             }
-            chatForm.updateUserList(userList);
-        });
+            int colon = message.indexOf(':', comma + 1);
+            if (colon > comma + 1 && colon < next) {
+                roster.put(message.substring(comma + 1, colon), message.substring(colon + 1, next));
+            }
+            comma = next;
+        }
+        return version;
+    }
+
+    // Delta: "version,+name:status,=name:status,~old:new,-name"
+    private void handlePresence(String message) {
+        String[] parts = message.split(",");
+        long version = Long.parseLong(parts[0]);
+        if (rosterVersion < 0 || version <= rosterVersion || snapshotRequested) {
+            return; // older than the snapshot we have, or a snapshot is on its way
+        }
+        if (version != rosterVersion + 1) {
+            // Missed a delta (e.g. dropped while we were slow): start over from a snapshot
+            snapshotRequested = true;
+            sendFrame(FrameType.USERLIST, "");
+            return;
+        }
+        // Only the final state of each name matters to the view
+        Map<String, String> changes = new HashMap<>();
+        for (int i = 1; i < parts.length; i++) {
+            String args = parts[i].substring(1);
+            int colon = args.indexOf(':');
+            switch (parts[i].charAt(0)) {
+                case '+':
+                case '=':
+                    roster.put(args.substring(0, colon), args.substring(colon + 1));
+                    changed(changes, args.substring(0, colon), args.substring(colon + 1));
+                    break;
+                case '~':
+                    String status = roster.remove(args.substring(0, colon));
+                    status = status != null ? status : "Online";
+                    roster.put(args.substring(colon + 1), status);
+                    changed(changes, args.substring(0, colon), null);
+                    changed(changes, args.substring(colon + 1), status);
+                    break;
+                case '-':
+                    roster.remove(args);
+                    changed(changes, args, null);
+                    break;
+                default:
+                    break;
+            }
+        }
+        rosterVersion = version;
+        if (!changes.isEmpty()) {
+            chatForm.updateRoster(changes);
+        }
+    }
+
+    private static void changed(Map<String, String> changes, String name, String status) {
+        if (isShown(name)) {
+            changes.put(name, status);
+        }
+    }
+
+    // Guests are left out of the contacts list
+    private static boolean isShown(String name) {
+        return !name.startsWith("Guest");
     }
     private void handleDisconnection() {
         chatForm.updateConnectionStatus(false);
         chatForm.displayMessage("[SYSTEM] Connection lost");
-
-        if (shouldReconnect && reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
+        if (shouldReconnect) {
             attemptReconnect();
-        } else {
-            chatForm.showError("Failed to reconnect after " + MAX_RECONNECT_ATTEMPTS + " attempts");
         }
     }
+
+    // Any thread: retries on a virtual thread of its own, unless that is already happening
     public void attemptReconnect() {
-        reconnectAttempts++;
-        chatForm.displayMessage("[SYSTEM] Attempting to reconnect (" + reconnectAttempts + "/" + MAX_RECONNECT_ATTEMPTS + ")...");
+        if (host != null && reconnecting.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("chat-client-reconnect").start(this::reconnect);
+        }
+    }
 
+    // Exponential backoff with jitter: each wait is half its ceiling plus a random part of the other
+    // half, so clients dropped by the same server restart do not all come back at the same moment
+    private void reconnect() {
         try {
-            Thread.sleep(RECONNECT_DELAY_MS);
-
-            if (connect(socket.getInetAddress().getHostName(), socket.getPort(), currentUser.getUsername())) {
-                reconnectAttempts = 0;
-                chatForm.displayMessage("[SYSTEM] Reconnected successfully!");
-                chatForm.updateConnectionStatus(true);
-                // Re-register with server
-                sendMessage("/register " + currentUser.getUsername());
+            for (int attempt = 1; attempt <= MAX_RECONNECT_ATTEMPTS && shouldReconnect; attempt++) {
+                long ceiling = Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << Math.min(attempt - 1, 16));
+                long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+                chatForm.displayMessage("[SYSTEM] Reconnecting in " + (delay + 500) / 1000 + " s (" + attempt + "/"
+                    + MAX_RECONNECT_ATTEMPTS + ")...");
+                Thread.sleep(delay);
+                try {
+                    open(host, port, currentUser.getUsername());
+                    chatForm.displayMessage("[SYSTEM] Reconnected successfully!");
+                    return;
+                } catch (IOException e) {
+                    chatForm.displayMessage("[SYSTEM] Reconnect failed: " + e.getMessage());
+                }
+            }
+            if (shouldReconnect) {
+                chatForm.showError("Failed to reconnect after " + MAX_RECONNECT_ATTEMPTS + " attempts");
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-        } catch (Exception e) {
-            chatForm.displayMessage("[SYSTEM] Reconnect failed: " + e.getMessage());
-            if (reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
-                attemptReconnect(); // Try again
-            }
+        } finally {
+            reconnecting.set(false);
         }
     }
 
-    // Add a method to stop reconnection attempts
     public void stopReconnectionAttempts() {
         shouldReconnect = false;
     }
+
     public void disconnect() {
-        try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        Transport t = transport;
+        if (t != null) {
+            t.close();
         }
     }
 
@@ -157,6 +414,7 @@ public class ChatClient {
         return chatForm;
     }
     public boolean isConnected() {
-        return socket != null && socket.isConnected() && !socket.isClosed();
+        Transport t = transport;
+        return t != null && t.isOpen();
     }
 }
\ No newline at end of file
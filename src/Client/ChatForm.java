@@ -3,15 +3,36 @@ package Client;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import Shared.Message;
 import Shared.User;
 
 public class ChatForm extends JFrame {
-    private final JTextArea chatArea;
+    private static final int SCROLLBACK_LINES = 5000; // lines kept; the oldest go first
+    private static final int FRAME_MILLIS = 16;       // new lines reach the view at most once per frame
+
+    private final JList<Message> chatList;
+    private final MessageListModel chatModel;
+    private final JScrollPane chatScroll;
+    // Lines from the listener thread waiting for the next frame, guarded by pendingLines
+    private final ArrayDeque<Message> pendingLines = new ArrayDeque<>();
+    private final List<Message> pendingOlder = new ArrayList<>();
+    private Map<String, String> pendingRoster;                          // a full roster, null if none came
+    private final Map<String, String> pendingChanges = new HashMap<>(); // name -> status, null if gone
+    private final AtomicBoolean updateQueued = new AtomicBoolean();
+    private final Timer frameTimer;
     private final JTextField messageField;
     private JLabel connectionStatus;
-    private final JList<String> contactsList;
-    private final DefaultListModel<String> contactsModel;
+    private final JList<User> contactsList;
+    private final RosterListModel contactsModel;
+    private final JTextField contactsFilter;
     private ChatClient chatClient;
 
     public ChatForm() {
@@ -23,18 +44,51 @@ public class ChatForm extends JFrame {
         // Main panel with border layout
         JPanel mainPanel = new JPanel(new BorderLayout());
         
-        // Chat area (center)
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        JScrollPane chatScroll = new JScrollPane(chatArea);
+        // Chat area (center). Fixed cell sizes let the list lay out and paint only the visible
+        // rows; a width narrower than any viewport makes rows as wide as the viewport.
+        chatModel = new MessageListModel(SCROLLBACK_LINES);
+        chatList = new JList<>(chatModel);
+        chatList.setCellRenderer(new MessageRenderer());
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2);
+        chatList.setFixedCellWidth(1);
+        chatScroll = new JScrollPane(chatList);
+        chatScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                loadOlderIfAtTop();
+            }
+        });
         mainPanel.add(chatScroll, BorderLayout.CENTER);
+        frameTimer = new Timer(FRAME_MILLIS, e -> showPendingLines());
+        frameTimer.setRepeats(false);
         
-        // Contacts list (east)
-        contactsModel = new DefaultListModel<>();
+        // Contacts list (east), with a name filter above it
+        contactsModel = new RosterListModel();
         contactsList = new JList<>(contactsModel);
+        contactsList.setFixedCellHeight(chatList.getFixedCellHeight());
+        contactsList.setFixedCellWidth(1);
         JScrollPane contactsScroll = new JScrollPane(contactsList);
-        contactsScroll.setPreferredSize(new Dimension(150, 0));
-        mainPanel.add(contactsScroll, BorderLayout.EAST);
+        contactsFilter = new JTextField();
+        contactsFilter.setToolTipText("Show names starting with...");
+        contactsFilter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                contactsModel.setFilter(contactsFilter.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                contactsModel.setFilter(contactsFilter.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        JPanel contactsPanel = new JPanel(new BorderLayout());
+        contactsPanel.add(contactsFilter, BorderLayout.NORTH);
+        contactsPanel.add(contactsScroll, BorderLayout.CENTER);
+        contactsPanel.setPreferredSize(new Dimension(150, 0));
+        mainPanel.add(contactsPanel, BorderLayout.EAST);
         
         // Message input (south)
         JPanel inputPanel = new JPanel(new BorderLayout());
@@ -89,18 +143,111 @@ public class ChatForm extends JFrame {
     }
 
     public void displayMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            chatArea.append(message + "\n");
-        });
+        displayMessage(new Message(null, message));
     }
 
-    public void updateUserList(List<User> users) {
-        SwingUtilities.invokeLater(() -> {
-            contactsModel.clear();
-            for (User user : users) {
-                contactsModel.addElement(user.toString());
+    // Any thread; the line shows up with the next frame
+    public void displayMessage(Message message) {
+        synchronized (pendingLines) {
+            pendingLines.addLast(message);
+            if (pendingLines.size() > SCROLLBACK_LINES) {
+                pendingLines.pollFirst(); // would fall out of the view right away
             }
-        });
+        }
+        scheduleUpdate();
+    }
+
+    // Any thread: a page of older lines, oldest first, for above the top of the view
+    public void displayOlder(List<Message> messages) {
+        synchronized (pendingLines) {
+            pendingOlder.addAll(0, messages);
+        }
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
+        if (updateQueued.compareAndSet(false, true)) {
+            frameTimer.restart();
+        }
+    }
+
+    // Any thread: the whole roster (name -> status), as of a snapshot
+    public void showRoster(Map<String, String> users) {
+        synchronized (pendingLines) {
+            pendingRoster = users;
+            pendingChanges.clear();
+        }
+        scheduleUpdate();
+    }
+
+    // Any thread: users that joined or changed (name -> status) or left (name -> null)
+    public void updateRoster(Map<String, String> changes) {
+        synchronized (pendingLines) {
+            if (pendingRoster != null) {
+                for (Map.Entry<String, String> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        pendingRoster.remove(change.getKey());
+                    } else {
+                        pendingRoster.put(change.getKey(), change.getValue());
+                    }
+                }
+            } else {
+                pendingChanges.putAll(changes);
+            }
+        }
+        scheduleUpdate();
+    }
+
+    // One model update per frame, however many lines and roster changes arrived. A view that
+    // showed the last line keeps following; otherwise it stays on the lines it showed as lines
+    // come and go above them.
+    private void showPendingLines() {
+        updateQueued.set(false);
+        List<Message> lines;
+        List<Message> older;
+        Map<String, String> roster;
+        Map<String, String> changes;
+        synchronized (pendingLines) {
+            lines = new ArrayList<>(pendingLines);
+            older = new ArrayList<>(pendingOlder);
+            roster = pendingRoster;
+            changes = new HashMap<>(pendingChanges);
+            pendingLines.clear();
+            pendingOlder.clear();
+            pendingRoster = null;
+            pendingChanges.clear();
+        }
+        if (roster != null) {
+            contactsModel.replaceAll(roster);
+        }
+        contactsModel.apply(changes);
+
+        JScrollBar bar = chatScroll.getVerticalScrollBar();
+        int rowHeight = chatList.getFixedCellHeight();
+        boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - rowHeight;
+        int shifted = chatModel.prepend(older) - chatModel.append(lines);
+        chatScroll.validate(); // the scroll bar learns the new size now, not after this event
+        if (following && chatModel.getSize() > 0) {
+            chatList.ensureIndexIsVisible(chatModel.getSize() - 1);
+        } else if (shifted != 0) {
+            bar.setValue(bar.getValue() + shifted * rowHeight);
+        }
+    }
+
+    // Scrolled to the top of a view with room left: ask for the page before its oldest room line
+    private void loadOlderIfAtTop() {
+        JScrollBar bar = chatScroll.getVerticalScrollBar();
+        if (chatClient == null || chatModel.isFull() || bar.getValue() > bar.getMinimum()
+                || bar.getVisibleAmount() >= bar.getMaximum() - bar.getMinimum()) {
+            return;
+        }
+        for (int i = 0; i < chatModel.getSize(); i++) {
+            String room = chatModel.getElementAt(i).getRoom();
+            if (room != null) {
+                chatClient.requestOlder(room, chatModel.oldestSequence(room));
+                return;
+            }
+        }
     }
 
     public void showError(String message) {
@@ -113,6 +260,20 @@ public class ChatForm extends JFrame {
         this.chatClient = chatClient;
         setTitle("Chat Application - " + chatClient.getCurrentUser().getUsername());
     }
+    private static class MessageRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            Message message = (Message) value;
+            String text = message.getContent();
+            if (message.getRoom() != null) {
+                text = "[" + message.getRoom() + "] "
+                    + (message.getSender() != null ? message.getSender() + ": " : "") + text;
+            }
+            return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+        }
+    }
+
     public void updateConnectionStatus(boolean connected) {
     SwingUtilities.invokeLater(() -> {
         if (connected) {
@@ -0,0 +1,83 @@
+package Client;
+
+import Shared.Message;
+import javax.swing.AbstractListModel;
+import java.util.List;
+
+// The chat view's lines: a ring of at most `capacity` messages, so a long session costs a fixed
+// amount of memory. New lines push the oldest out; older history fetched on scroll only fills
+// room that is still free. Event dispatch thread only.
+class MessageListModel extends AbstractListModel<Message> {
+    private final Message[] ring;
+    private int head; // index of the oldest line
+    private int size;
+
+    MessageListModel(int capacity) {
+        this.ring = new Message[Math.max(1, capacity)];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Message getElementAt(int index) {
+        return ring[(head + index) % ring.length];
+    }
+
+    boolean isFull() {
+        return size == ring.length;
+    }
+
+    // Adds the batch at the bottom; returns how many of the oldest lines fell out
+    int append(List<Message> messages) {
+        int skip = Math.max(0, messages.size() - ring.length); // a batch bigger than the ring keeps its tail
+        int added = messages.size() - skip;
+        int evicted = Math.max(0, size + added - ring.length);
+        if (evicted > 0) {
+            for (int i = 0; i < evicted; i++) {
+                ring[(head + i) % ring.length] = null;
+            }
+            head = (head + evicted) % ring.length;
+            size -= evicted;
+            fireIntervalRemoved(this, 0, evicted - 1);
+        }
+        for (int i = skip; i < messages.size(); i++) {
+            ring[(head + size++) % ring.length] = messages.get(i);
+        }
+        if (added > 0) {
+            fireIntervalAdded(this, size - added, size - 1);
+        }
+        return evicted;
+    }
+
+    // Adds older lines, in order, above the top; only as many of the newest of them as there is
+    // free room for. Returns how many went in.
+    int prepend(List<Message> messages) {
+        int added = Math.min(messages.size(), ring.length - size);
+        if (added == 0) {
+            return 0;
+        }
+        head = (head - added + ring.length) % ring.length;
+        for (int i = 0; i < added; i++) {
+            ring[(head + i) % ring.length] = messages.get(messages.size() - added + i);
+        }
+        size += added;
+        fireIntervalAdded(this, 0, added - 1);
+        return added;
+    }
+
+    // The lowest sequence number held for `room`, or 0 if none
+    long oldestSequence(String room) {
+        long oldest = 0;
+        for (int i = 0; i < size; i++) {
+            Message message = getElementAt(i);
+            if (room.equals(message.getRoom()) && message.getSequence() > 0
+                    && (oldest == 0 || message.getSequence() < oldest)) {
+                oldest = message.getSequence();
+            }
+        }
+        return oldest;
+    }
+}
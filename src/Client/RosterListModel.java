@@ -0,0 +1,172 @@
+package Client;
+
+import Shared.User;
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// The contacts list, kept sorted by lower-cased name (the server's uniqueness key). Changes are
+// applied one user at a time and fire events for just that row, so a presence change repaints
+// one cell. The filter is a name prefix: its matches are one contiguous run of the sorted list,
+// found with two binary searches. Event dispatch thread only.
+class RosterListModel extends AbstractListModel<User> {
+    private final List<String> keys = new ArrayList<>(); // lower-cased names, ascending
+    private final List<User> users = new ArrayList<>();  // same order
+    private String filter = "";
+    private int from; // users[from, to) match the filter
+    private int to;
+
+    @Override
+    public int getSize() {
+        return to - from;
+    }
+
+    @Override
+    public User getElementAt(int index) {
+        return users.get(from + index);
+    }
+
+    void setFilter(String prefix) {
+        int oldSize = getSize();
+        filter = prefix.trim().toLowerCase(Locale.ROOT);
+        updateRange();
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (getSize() > 0) {
+            fireIntervalAdded(this, 0, getSize() - 1);
+        }
+    }
+
+    // name -> status, or null for users that left
+    void apply(Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                remove(change.getKey());
+            } else {
+                put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    // A full roster (name -> status). Close to the current one, it is applied as the difference;
+    // otherwise the list is rebuilt and the view refreshed once.
+    void replaceAll(Map<String, String> roster) {
+        Set<String> current = new HashSet<>();
+        for (String name : roster.keySet()) {
+            current.add(key(name));
+        }
+        int stale = 0;
+        for (String key : keys) {
+            if (!current.contains(key)) {
+                stale++;
+            }
+        }
+        int added = current.size() - (keys.size() - stale);
+        if (stale + added <= keys.size() / 4) {
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                if (!current.contains(keys.get(i))) {
+                    removeAt(i);
+                }
+            }
+            apply(roster);
+            return;
+        }
+
+        int oldSize = getSize();
+        Map<String, User> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> entry : roster.entrySet()) {
+            User user = new User(entry.getKey());
+            user.setStatus(entry.getValue());
+            sorted.put(key(entry.getKey()), user);
+        }
+        keys.clear();
+        users.clear();
+        keys.addAll(sorted.keySet());
+        users.addAll(sorted.values());
+        updateRange();
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (getSize() > 0) {
+            fireIntervalAdded(this, 0, getSize() - 1);
+        }
+    }
+
+    private void put(String name, String status) {
+        String key = key(name);
+        int index = lowerBound(key);
+        if (index < keys.size() && keys.get(index).equals(key)) {
+            User user = users.get(index);
+            if (user.getUsername().equals(name) && user.getStatus().equals(status)) {
+                return;
+            }
+            user.setUsername(name);
+            user.setStatus(status);
+            if (index >= from && index < to) {
+                fireContentsChanged(this, index - from, index - from);
+            }
+            return;
+        }
+        User user = new User(name);
+        user.setStatus(status);
+        keys.add(index, key);
+        users.add(index, user);
+        if (key.startsWith(filter)) {
+            to++;
+            fireIntervalAdded(this, index - from, index - from);
+        } else if (index <= from) {
+            from++;
+            to++;
+        }
+    }
+
+    private void remove(String name) {
+        String key = key(name);
+        int index = lowerBound(key);
+        if (index < keys.size() && keys.get(index).equals(key)) {
+            removeAt(index);
+        }
+    }
+
+    private void removeAt(int index) {
+        keys.remove(index);
+        users.remove(index);
+        if (index >= from && index < to) {
+            to--;
+            fireIntervalRemoved(this, index - from, index - from);
+        } else if (index < from) {
+            from--;
+            to--;
+        }
+    }
+
+    private void updateRange() {
+        from = lowerBound(filter);
+        to = filter.isEmpty() ? keys.size() : lowerBound(filter + Character.MAX_VALUE);
+    }
+
+    // First index whose key is not below `key`
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys.get(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
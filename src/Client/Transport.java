@@ -0,0 +1,124 @@
+package Client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One connection to the server: a virtual thread reads and a second one writes, the same split
+// as the server's BlockingConnection. Senders only queue, under the lock, so the EDT never waits
+// on a full socket; a full queue refuses the frame instead. The writer sends everything queued
+// since its last write with one gathering write.
+class Transport {
+    private final SocketChannel channel;
+    private final int maxQueuedFrames;
+    private final ReentrantLock lock = new ReentrantLock(); // not synchronized, which would pin the carrier
+    private final Condition hasFrames = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private boolean closed;           // guarded by lock; nothing more is sent
+    private volatile boolean stopped; // closed on purpose, so losing the connection is expected
+    private Thread reader;
+
+    Transport(SocketChannel channel, int maxQueuedFrames) {
+        this.channel = channel;
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    // Never blocks; false if the queue is full or the connection is gone
+    boolean send(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (closed || queue.size() >= maxQueuedFrames) {
+                return false;
+            }
+            queue.addLast(frame);
+            hasFrames.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void start(Consumer<Transport> readLoop) {
+        reader = Thread.ofVirtual().name("chat-client-reader").start(() -> readLoop.accept(this));
+        Thread.ofVirtual().name("chat-client-writer").start(this::writeLoop);
+    }
+
+    // For the reader thread; reads and writes on a blocking channel do not wait for each other
+    DataInputStream openInput() {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer[] batch;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && !closed) {
+                        hasFrames.await();
+                    }
+                    if (closed) {
+                        break;
+                    }
+                    batch = queue.toArray(new ByteBuffer[0]);
+                    queue.clear();
+                } finally {
+                    lock.unlock();
+                }
+                while (batch[batch.length - 1].hasRemaining()) {
+                    channel.write(batch);
+                }
+            }
+        } catch (IOException e) {
+            // the reader sees the closed channel and reports the lost connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        abort();
+    }
+
+    // The connection failed: stop both threads
+    void abort() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            hasFrames.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    // Disconnect on purpose: the reader stops without reporting a lost connection
+    void close() {
+        stopped = true;
+        abort();
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    // Waits until the reader has handled its last frame
+    void awaitReader() throws InterruptedException {
+        if (reader != null && reader != Thread.currentThread()) {
+            reader.join();
+        }
+    }
+}
@@ -0,0 +1,726 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import Shared.User;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Command handling shared by every engine (/register, /status, /userlist, /join, /leave, /msg,
+// /history, room messages). Engines only
+// decide how connections are accepted, read and written.
+public abstract class AbstractChatServer implements ChatEngine {
+    protected final ServerConfig config;
+    protected final ServerListener listener;
+    protected final Map<SocketChannel, User> clients = new ConcurrentHashMap<>();
+    protected final BufferPool bufferPool;
+    protected final Presence presence;
+    protected final Sessions sessions;
+    protected final Journal journal; // null when journaling is disabled
+    protected final Rooms rooms;
+    protected final ServerMetrics metrics;
+    protected final Heartbeat heartbeat;
+    protected final RateLimits rateLimits;
+    protected final Compression compression; // null when the server grants no compression
+    protected final Cluster cluster;
+    // Lower-cased username -> connection, for uniqueness checks and /msg routing
+    private final Map<String, ClientConnection> byName = new ConcurrentHashMap<>();
+    private Commands commands; // set by start(), before any client is read
+    protected volatile boolean running = true;
+
+    // Package-private: only the engines here extend it, so handing `this` to the services below
+    // cannot expose a half-built subclass
+    AbstractChatServer(ServerConfig config, ServerListener listener) {
+        this.config = config;
+        this.listener = listener;
+        this.bufferPool = new BufferPool(config.getReadBufferSize(), config.getMaxPooledBuffers());
+        this.presence = new Presence(this, config);
+        this.sessions = new Sessions(this, config);
+        this.journal = config.getJournalDirectory() == null ? null : new Journal(config, listener);
+        this.rooms = new Rooms(journal);
+        this.metrics = new ServerMetrics(this, config);
+        this.heartbeat = new Heartbeat(this, config);
+        this.rateLimits = new RateLimits(config);
+        this.compression = config.isCompression() ? new Compression(config, metrics) : null;
+        this.cluster = new Cluster(this, config);
+    }
+
+    // Engines call this first thing in start(). A command with a frame type is also what a
+    // binary frame of that type does.
+    void registerCommands() {
+        commands = new Commands();
+        commands.register("register", FrameType.REGISTER, Commands.Cost.CHEAP, this::handleRegistration);
+        commands.register("status", FrameType.STATUS, Commands.Cost.CHEAP, this::handleStatusChange);
+        // A binary client sends USERLIST when it saw a gap in the delta versions
+        commands.register("userlist", FrameType.USERLIST, Commands.Cost.CHEAP,
+            (connection, user, args) -> presence.sendSnapshot(connection));
+        commands.register("msg", null, Commands.Cost.CHEAP, this::handleDirectMessage);
+        // Reads journal segments, which may not be in memory
+        commands.register("history", null, Commands.Cost.COSTLY,
+            (connection, user, args) -> handleHistory(connection, args));
+        commands.register("join", null, Commands.Cost.CHEAP, (connection, user, args) -> handleJoin(connection, args));
+        commands.register("leave", null, Commands.Cost.CHEAP, (connection, user, args) -> handleLeave(connection, args));
+    }
+
+    // Delivers one encoded frame to every connected client
+    protected abstract void fanOut(OutboundFrame frame, boolean coalescable);
+
+    // fanOut() plus the replay of every session waiting for its client to resume. Recorded first:
+    // a resume in between may then see the frame twice, but never miss it.
+    void broadcast(OutboundFrame frame) {
+        sessions.record(frame);
+        fanOut(frame, false);
+    }
+
+    // Delivers one encoded frame to a subset of clients, e.g. a room
+    protected void fanOut(Collection<ClientConnection> recipients, OutboundFrame frame, boolean coalescable) {
+        for (ClientConnection connection : recipients) {
+            connection.send(frame, coalescable);
+        }
+    }
+
+    void log(String message) {
+        listener.log(message);
+    }
+
+    // Every client that has negotiated a protocol
+    Collection<ClientConnection> connections() {
+        return byName.values();
+    }
+
+    ClientConnection localConnection(String nameKey) {
+        return byName.get(nameKey);
+    }
+
+    // Called by the publisher after fanOut() and by every fan-out task it started; the last one
+    // to finish has handed the frame to all recipients
+    void fanOutFinished(OutboundFrame frame) {
+        if (frame.endFanOut() && frame.getReceivedNanos() != 0) {
+            metrics.delivered(frame.getReceivedNanos());
+        }
+    }
+
+    // Guests of different cluster nodes never clash
+    User newGuest(SocketChannel channel) {
+        String node = config.getClusterNodeId();
+        return new User("Guest" + (node == null ? "" : node + "-") + channel.hashCode());
+    }
+
+    // Runs on the thread that owns the new connection
+    void clientConnected(ClientConnection connection) {
+        User user = connection.getUser();
+        clients.put(connection.getChannel(), user);
+        byName.put(nameKey(user.getUsername()), connection);
+        connection.setQuota(rateLimits.newQuota());
+        listener.log("New client connected: " + user);
+        presence.sendSnapshot(connection);
+        cluster.joined(connection);
+        rooms.join(Rooms.LOBBY, connection);
+        connection.setCurrentRoom(Rooms.LOBBY);
+    }
+
+    // One read from the channel; blocks only if the channel is in blocking mode
+    void readMessage(ClientConnection connection) {
+        InboundBuffer inbound = connection.getInbound();
+        User user = connection.getUser();
+        try {
+            int bytesRead = inbound.readFrom(connection.getChannel());
+            if (bytesRead == -1) {
+                disconnectClient(connection);
+                return;
+            }
+            if (bytesRead == 0) {
+                inbound.releaseIfEmpty();
+                return;
+            }
+            connection.markRead(System.currentTimeMillis());
+            metrics.bytesRead(bytesRead);
+            connection.setReceivedNanos(System.nanoTime());
+
+            // The first byte decides the protocol: binary clients open with a handshake.
+            // Bytes left over from an earlier read mean a handshake is still arriving.
+            if (connection.getWireFormat() == null && !connection.isHandshaken()
+                    && inbound.available() == bytesRead && inbound.peek() != FrameCodec.HANDSHAKE_MARKER) {
+                connection.setWireFormat(WireFormat.TEXT);
+                clientConnected(connection);
+            }
+            handleMessages(connection, user, inbound);
+        } catch (IOException e) {
+            disconnectClient(connection);
+        }
+    }
+
+    // A rate limit pause is over: handle what was buffered meanwhile
+    void resumeReading(ClientConnection connection) {
+        try {
+            handleMessages(connection, connection.getUser(), connection.getInbound());
+        } catch (IOException e) {
+            disconnectClient(connection);
+        }
+    }
+
+    // Every complete message in the buffer, unless a rate limit puts the rest on hold
+    private void handleMessages(ClientConnection connection, User user, InboundBuffer inbound) throws IOException {
+        if (connection.getWireFormat() == WireFormat.TEXT) {
+            while (!connection.isReadsHeld() && inbound.nextLine()) {
+                if (inbound.payloadLength() > 0) {
+                    metrics.messageReceived();
+                    userActive(connection, user);
+                    if (admit(connection, inbound.payloadLength())) {
+                        processClientMessage(connection, user, inbound.payloadString());
+                    }
+                }
+            }
+        } else {
+            readFrames(connection, user, inbound);
+        }
+        inbound.releaseIfEmpty();
+    }
+
+    private void readFrames(ClientConnection connection, User user, InboundBuffer inbound) throws IOException {
+        if (connection.getWireFormat() == null) {
+            if (!connection.isHandshaken()) {
+                int version = inbound.readHandshake();
+                if (version < 0) {
+                    return;
+                }
+                // Queue the ack before enabling frames so no broadcast can overtake it
+                connection.setProtocolVersion(Math.min(version, FrameCodec.VERSION));
+                connection.send(FrameCodec.handshake(connection.getProtocolVersion()), false);
+                connection.setHandshaken();
+            }
+            // The first frame says whether this is a new client or a resumed session, unless a
+            // version 3 client asks for compression first
+            if (!inbound.nextFrame()) {
+                return;
+            }
+            if (inbound.getFrameType() == FrameType.COMPRESS) {
+                negotiateCompression(connection, inbound.payloadString());
+                if (!inbound.nextFrame()) {
+                    return;
+                }
+            }
+            boolean resume = inbound.getFrameType() == FrameType.RESUME;
+            if (!resume || !resumeSession(connection, inbound.payloadString())) {
+                startSession(connection);
+                if (!resume) {
+                    handleFrame(connection, user, inbound);
+                }
+            }
+        }
+
+        while (!connection.isReadsHeld() && inbound.nextFrame()) {
+            handleFrame(connection, user, inbound);
+        }
+    }
+
+    // COMPRESS "deflate,...": what the client can inflate. The answer, also COMPRESS, names what
+    // the server will send ("" for nothing) and is the last frame that is surely uncompressed.
+    private void negotiateCompression(ClientConnection connection, String offered) {
+        if (connection.getProtocolVersion() < 3 || connection.getCompression() != null) {
+            return;
+        }
+        boolean deflate = false;
+        for (String method : offered.split(",")) {
+            deflate |= method.trim().equals(FrameCodec.DEFLATE);
+        }
+        deflate &= compression != null;
+        connection.send(FrameCodec.encode(FrameType.COMPRESS, deflate ? FrameCodec.DEFLATE : "",
+            config.isDirectBuffers()), false);
+        if (deflate) {
+            connection.setCompression(compression.newStream());
+        }
+    }
+
+    // Every frame sent from here on is numbered for a later resume. The SESSION frame itself
+    // goes out before numbering starts, as do the frames replayed on a resume.
+    private void startSession(ClientConnection connection) {
+        Session session = sessions.create(connection);
+        connection.send(sessionFrame(session), false);
+        connection.setSession(session);
+        connection.setReplay(session.getReplay());
+        connection.setWireFormat(WireFormat.BINARY);
+        clientConnected(connection);
+    }
+
+    // RESUME payload: "token lastSeen". Returns false if the session is unknown, expired or the
+    // client is too far behind; the caller then starts a fresh session and the client registers.
+    private boolean resumeSession(ClientConnection connection, String payload) {
+        String[] parts = payload.trim().split(" ");
+        Session session = parts.length == 2 ? sessions.get(parts[0]) : null;
+        if (session == null) {
+            return false;
+        }
+        ClientConnection old;
+        session.lock(); // holds back frames forwarded from the old connection until the replay is queued
+        try {
+            long lastSeen;
+            try {
+                lastSeen = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (session.isExpired()) {
+                return false;
+            }
+            // The replay may hold frames compressed for the old connection
+            if ((session.getConnection().getCompression() == null) != (connection.getCompression() == null)) {
+                return false;
+            }
+            List<ByteBuffer> missed = session.getReplay().takeOver(connection.outbound, lastSeen);
+            if (missed == null) {
+                return false;
+            }
+            connection.send(sessionFrame(session), false);
+            for (ByteBuffer frame : missed) {
+                connection.send(frame, false);
+            }
+            old = session.getConnection();
+            connection.setSession(session);
+            connection.setReplay(session.getReplay());
+            connection.setWireFormat(WireFormat.BINARY);
+            session.attach(connection);
+            sessions.resumed(session);
+        } finally {
+            session.unlock();
+        }
+
+        // Take over the old connection's place; nobody else sees a leave or a join
+        User user = connection.getUser();
+        User oldUser = old.getUser();
+        user.setUsername(oldUser.getUsername());
+        user.setStatus(oldUser.getStatus());
+        connection.setAutoAway(old.isAutoAway());
+        connection.setClaimedMillis(old.getClaimedMillis());
+        connection.setQuota(old.getQuota());
+        clients.remove(old.getChannel());
+        clients.put(connection.getChannel(), user);
+        byName.replace(nameKey(user.getUsername()), old, connection);
+        rooms.transfer(old, connection);
+        presence.sendSnapshot(connection);
+        if (!old.isClosed()) {
+            old.abort(); // the network flapped before we noticed the old socket was dead
+        }
+        listener.log("Session resumed: " + user);
+        return true;
+    }
+
+    // Raw bytes: the connection has no wire format yet
+    private ByteBuffer sessionFrame(Session session) {
+        return FrameCodec.encode(FrameType.SESSION, session.getToken(), config.isDirectBuffers());
+    }
+
+    // The frame `inbound` has selected
+    private void handleFrame(ClientConnection connection, User user, InboundBuffer inbound) {
+        metrics.messageReceived();
+        FrameType type = inbound.getFrameType();
+        if (type == FrameType.PONG) {
+            return; // the read itself was the proof of life
+        }
+        userActive(connection, user);
+        // Charged in bytes, as on the text protocol, not in decoded chars
+        if (!admit(connection, inbound.payloadLength())) {
+            return;
+        }
+        String payload = inbound.payloadString();
+        if (type == FrameType.CHAT) {
+            // Slash commands typed into the chat box work the same as on the text protocol
+            processClientMessage(connection, user, payload);
+            return;
+        }
+        Commands.Command command = commands.forFrame(type);
+        if (command != null) {
+            run(command, connection, user, payload.trim());
+        } // server-to-client types are ignored
+    }
+
+    // The user did something: undo an automatic Away
+    private void userActive(ClientConnection connection, User user) {
+        user.updateLastActive();
+        if (connection.isAutoAway()) {
+            connection.getAwayLock().lock();
+            try {
+                if (connection.isAutoAway()) {
+                    connection.setAutoAway(false);
+                    if (user.getStatus().equals("Away")) {
+                        user.setStatus("Online");
+                        cluster.statusChanged(user.getUsername(), "Online");
+                    }
+                }
+            } finally {
+                connection.getAwayLock().unlock();
+            }
+        }
+    }
+
+    // Heartbeat: nothing from the user since `cutoff`. The flag goes up before the activity
+    // check, so a message racing with us is either seen here or sees the flag and undoes it.
+    void markAway(ClientConnection connection, long cutoff) {
+        User user = connection.getUser();
+        connection.getAwayLock().lock();
+        try {
+            if (!user.getStatus().equals("Online")) {
+                return; // only an Online user is put Away, and only they are brought back
+            }
+            connection.setAutoAway(true);
+            if (user.getLastActive() > cutoff) {
+                connection.setAutoAway(false);
+                return;
+            }
+            user.setStatus("Away");
+            cluster.statusChanged(user.getUsername(), "Away");
+        } finally {
+            connection.getAwayLock().unlock();
+        }
+    }
+
+    // Checked once per inbound message; false if the message must not be handled
+    private boolean admit(ClientConnection connection, int bytes) {
+        RateLimitPolicy policy = config.getRateLimitPolicy();
+        long wait = connection.getQuota().take(bytes, System.nanoTime(), policy == RateLimitPolicy.DELAY);
+        if (wait == 0) {
+            return true;
+        }
+        metrics.rateLimited();
+        switch (policy) {
+            case DELAY:
+                connection.pauseReading(wait);
+                return true;
+            case DISCONNECT:
+                listener.log("Disconnecting flooding client: " + connection.getUser());
+                connection.setReadsHeld(true);
+                connection.abort();
+                return false;
+            default:
+                floodWarning(connection, "You are sending too fast, messages are being dropped");
+                return false;
+        }
+    }
+
+    // Once until the client gets a message through again
+    private void floodWarning(ClientConnection connection, String text) {
+        if (!connection.isFloodWarned()) {
+            connection.setFloodWarned(true);
+            connection.send(systemFrame(text), false);
+        }
+    }
+
+    // Anything that is not a known command, "/" or not, is said in the current room
+    private void processClientMessage(ClientConnection connection, User user, String message) {
+        Commands.Command command = message.startsWith("/") ? commands.lookup(message) : null;
+        if (command != null) {
+            run(command, connection, user, Commands.args(message));
+        } else {
+            sendToRoom(connection, user, message);
+        }
+    }
+
+    // Reader thread. A costly command is handed to the engine, which holds this client's later
+    // messages until it is done, so they are still handled in order.
+    private void run(Commands.Command command, ClientConnection connection, User user, String args) {
+        if (command.cost == Commands.Cost.COSTLY) {
+            connection.offload(() -> command.handler.handle(connection, user, args));
+        } else {
+            command.handler.handle(connection, user, args);
+        }
+    }
+
+    private void handleRegistration(ClientConnection connection, User user, String username) {
+        // ',' and ':' separate entries in the presence payloads
+        if (username.isEmpty() || username.indexOf(',') >= 0 || username.indexOf(':') >= 0) {
+            connection.send(systemFrame("Invalid username"), false);
+            return;
+        }
+
+        // putIfAbsent is the atomic check-and-set, so concurrent logins need no global lock.
+        // Two nodes of a cluster may still both hand out a name; the cluster settles that later.
+        String oldName = user.getUsername();
+        if (!nameKey(oldName).equals(nameKey(username)) && cluster.isRemote(username)) {
+            connection.send(systemFrame("Username already taken"), false);
+            return;
+        }
+        ClientConnection owner = byName.putIfAbsent(nameKey(username), connection);
+        if (owner != null && owner != connection) {
+            connection.send(systemFrame("Username already taken"), false);
+            return;
+        }
+        if (!nameKey(oldName).equals(nameKey(username))) {
+            byName.remove(nameKey(oldName), connection);
+        }
+        if (oldName.equals(username)) {
+            return; // already registered under this name
+        }
+        rateLimits.release(nameKey(oldName), connection.getQuota());
+        connection.setQuota(rateLimits.forUser(nameKey(username), connection.getQuota()));
+        user.setUsername(username);
+        connection.setClaimedMillis(System.currentTimeMillis());
+        cluster.renamed(connection, oldName, username);
+        if (connection.markRegistered()) {
+            metrics.registered(connection.getAcceptedNanos());
+        }
+        broadcastSystemMessage(username + " has joined the chat");
+    }
+
+    private void handleStatusChange(ClientConnection connection, User user, String newStatus) {
+        if (newStatus.isEmpty() || newStatus.indexOf(',') >= 0 || newStatus.indexOf(':') >= 0) {
+            connection.send(systemFrame("Invalid status"), false);
+            return;
+        }
+        user.setStatus(newStatus);
+        broadcastSystemMessage(user.getUsername() + " is now " + newStatus);
+        cluster.statusChanged(user.getUsername(), newStatus);
+    }
+
+    // "/msg <user> <text>": one index lookup, delivered to the recipient and echoed to the sender.
+    // A user of another cluster node gets it through that node, which answers if they are gone.
+    private void handleDirectMessage(ClientConnection connection, User sender, String args) {
+        int space = args.indexOf(' ');
+        if (space < 0) {
+            connection.send(systemFrame("Usage: /msg <user> <text>"), false);
+            return;
+        }
+        ClientConnection recipient = byName.get(nameKey(args.substring(0, space)));
+        if (recipient == null) {
+            String text = args.substring(space + 1).trim();
+            String remote = cluster.sendDirect(sender.getUsername(), args.substring(0, space), text);
+            connection.send(remote == null ? systemFrame("No such user: " + args.substring(0, space))
+                : new OutboundFrame(FrameType.CHAT, sender.getUsername() + " -> " + remote + ": " + text,
+                    config.isDirectBuffers()), false);
+            return;
+        }
+        OutboundFrame frame = new OutboundFrame(FrameType.CHAT, sender.getUsername() + " -> "
+            + recipient.getUser().getUsername() + ": " + args.substring(space + 1).trim(), config.isDirectBuffers());
+        recipient.send(frame, false);
+        if (recipient != connection) {
+            connection.send(frame, false);
+        }
+    }
+
+    // "/history [room] [<n> | since <seq> | before <seq> [<n>]]", from the journal; defaults to the
+    // last 20 messages. "before" ends just short of <seq>, for a client paging back from there.
+    private void handleHistory(ClientConnection connection, String args) {
+        String[] words = args.isEmpty() ? new String[0] : args.split("\\s+");
+        int i = 0;
+        String roomName = connection.getCurrentRoom();
+        if (words.length > 0 && !words[0].equals("since") && !words[0].equals("before")
+                && !Character.isDigit(words[0].charAt(0))) {
+            roomName = words[i++].toLowerCase(Locale.ROOT);
+        }
+        Room room = roomName != null && connection.getRooms().contains(roomName) ? rooms.get(roomName) : null;
+        if (room == null) {
+            connection.send(systemFrame("Not in #" + roomName), false);
+            return;
+        }
+
+        long last = room.getSequence();
+        long from;
+        long to = last;
+        try {
+            if (i < words.length && words[i].equals("since")) {
+                from = Long.parseLong(words[i + 1]);
+                to = Math.min(last, from + config.getHistoryLimit() - 1);
+            } else if (i < words.length && words[i].equals("before")) {
+                to = Math.min(last, Long.parseLong(words[i + 1]) - 1);
+                long count = i + 2 < words.length ? Long.parseLong(words[i + 2]) : 20;
+                from = to - Math.min(count, config.getHistoryLimit()) + 1;
+            } else {
+                long count = i < words.length ? Long.parseLong(words[i]) : 20;
+                from = last - Math.min(count, config.getHistoryLimit()) + 1;
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            connection.send(systemFrame("Usage: /history [room] [<n> | since <seq> | before <seq> [<n>]]"), false);
+            return;
+        }
+
+        List<ByteBuffer> slices = room.history(Math.max(1, from), to);
+        if (slices.isEmpty()) {
+            connection.send(systemFrame("No history for #" + room.getName()), false);
+        } else if (connection.getWireFormat() == WireFormat.BINARY) {
+            // Journal records are binary ROOM frames, so the mapped bytes go out untouched.
+            // One view per frame keeps session replay numbering per frame.
+            for (ByteBuffer slice : slices) {
+                for (int pos = 0; pos < slice.limit(); pos += 4 + slice.getInt(pos)) {
+                    connection.send(slice.slice(pos, 4 + slice.getInt(pos)), false);
+                }
+            }
+        } else {
+            for (ByteBuffer slice : slices) {
+                while (slice.hasRemaining()) {
+                    byte[] payload = new byte[slice.getInt() - 1];
+                    slice.get(); // type
+                    slice.get(payload);
+                    connection.send(new OutboundFrame(FrameType.ROOM, new String(payload, StandardCharsets.UTF_8),
+                        config.isDirectBuffers()), false);
+                }
+            }
+        }
+    }
+
+    private void handleJoin(ClientConnection connection, String name) {
+        if (!Rooms.isValidName(name)) {
+            connection.send(systemFrame("Invalid room name"), false);
+            return;
+        }
+        Room room = rooms.join(name, connection);
+        connection.setCurrentRoom(room.getName());
+        connection.send(systemFrame("Joined #" + room.getName() + " (" + room.getSubscribers().size()
+            + " members)"), false);
+    }
+
+    // "/leave" alone leaves the current room
+    private void handleLeave(ClientConnection connection, String name) {
+        if (name.isEmpty()) {
+            name = connection.getCurrentRoom() != null ? connection.getCurrentRoom() : "";
+        }
+        if (!rooms.leave(name, connection)) {
+            connection.send(systemFrame("Not in #" + name), false);
+            return;
+        }
+        String left = name.toLowerCase(Locale.ROOT);
+        if (left.equals(connection.getCurrentRoom())) {
+            connection.setCurrentRoom(connection.getRooms().isEmpty() ? null : connection.getRooms().iterator().next());
+        }
+        connection.send(systemFrame("Left #" + left + (connection.getCurrentRoom() != null
+            ? ", now talking in #" + connection.getCurrentRoom() : "")), false);
+    }
+
+    private void sendToRoom(ClientConnection connection, User sender, String message) {
+        Room room = connection.getCurrentRoom() == null ? null : rooms.get(connection.getCurrentRoom());
+        if (room == null) {
+            connection.send(systemFrame("Join a room first: /join <room>"), false);
+            return;
+        }
+        String formattedMessage = sender.getUsername() + ": " + message;
+        // Charged to the server-wide budget by (about) bytes times recipients. Whoever finds it
+        // empty waits or loses the message; it never costs the sender its connection.
+        boolean delay = config.getRateLimitPolicy() == RateLimitPolicy.DELAY;
+        long wait = rateLimits.takeFanOut((long) formattedMessage.length() * room.getSubscribers().size(), delay);
+        if (wait > 0) {
+            metrics.rateLimited();
+            if (!delay) {
+                floodWarning(connection, "Server is busy, messages are being dropped");
+                return;
+            }
+            connection.pauseReading(wait);
+        }
+        listener.log("Broadcasting to #" + room.getName() + ": " + formattedMessage.trim());
+
+        room.publish(this, formattedMessage, config.isDirectBuffers(), connection.getReceivedNanos());
+        cluster.publish(room.getName(), formattedMessage);
+        connection.setFloodWarned(false);
+    }
+
+    protected void broadcastSystemMessage(String message) {
+        String formattedMessage = "[System] " + message;
+        announce(formattedMessage);
+        cluster.broadcast(formattedMessage);
+    }
+
+    // A system message for this node's clients only
+    void announce(String formattedMessage) {
+        listener.log(formattedMessage);
+        broadcast(systemFrame(formattedMessage));
+    }
+
+    // Cluster: a room message from another node, numbered here. Nobody here in the room, nothing to do.
+    void publishRemote(String roomName, String formattedMessage) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            room.publish(this, formattedMessage, config.isDirectBuffers(), 0);
+        }
+    }
+
+    // Cluster: a /msg from another node's user; false if nobody here has that name
+    boolean deliverDirect(String from, String to, String text) {
+        ClientConnection recipient = byName.get(nameKey(to));
+        if (recipient == null) {
+            return false;
+        }
+        recipient.send(new OutboundFrame(FrameType.CHAT, from + " -> " + recipient.getUser().getUsername() + ": "
+            + text, config.isDirectBuffers()), false);
+        return true;
+    }
+
+    // Cluster: a system message for one of our users from another node
+    void notice(String to, String text) {
+        ClientConnection recipient = byName.get(nameKey(to));
+        if (recipient != null) {
+            recipient.send(systemFrame(text), false);
+        }
+    }
+
+    // Cluster: another node's user holds `name` by an older claim, so ours goes back to being a guest
+    void revokeName(ClientConnection connection, String name) {
+        User user = connection.getUser();
+        String guest = newGuest(connection.getChannel()).getUsername();
+        byName.remove(nameKey(name), connection);
+        byName.put(nameKey(guest), connection);
+        user.setUsername(guest);
+        connection.setClaimedMillis(System.currentTimeMillis());
+        cluster.renamed(connection, name, guest);
+        connection.send(systemFrame("The name " + name + " was taken on another server first, you are now "
+            + guest), false);
+        listener.log("Name clash with another node: " + name + " is now " + guest);
+    }
+
+    OutboundFrame systemFrame(String text) {
+        return new OutboundFrame(FrameType.SYSTEM, text, config.isDirectBuffers());
+    }
+
+    // Runs on the thread that owns the connection
+    void disconnectClient(ClientConnection connection) {
+        if (!connection.markClosed()) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            listener.log("Error closing client channel: " + e.getMessage());
+        }
+        Session session = connection.getSession();
+        if (session != null && running) {
+            // Stays in its rooms and the roster until it resumes or the session expires
+            session.lock(); // orders the detached set against a resume
+            try {
+                if (session.detach(connection)) {
+                    sessions.detached(session);
+                    listener.log("Client dropped, keeping its session: " + connection.getUser());
+                }
+            } finally {
+                session.unlock();
+            }
+            return;
+        }
+        removeClient(connection);
+    }
+
+    // Sweeper thread: a dropped client did not resume in time
+    void sessionExpired(Session session) {
+        removeClient(session.getConnection());
+    }
+
+    private void removeClient(ClientConnection connection) {
+        User user = connection.getUser();
+        boolean joined = clients.remove(connection.getChannel()) != null;
+        byName.remove(nameKey(user.getUsername()), connection);
+        rateLimits.release(nameKey(user.getUsername()), connection.getQuota());
+        rooms.leaveAll(connection);
+        if (!joined || !running) {
+            return; // never negotiated a protocol, or shutting down: nobody to notify
+        }
+        broadcastSystemMessage(user.getUsername() + " has left the chat");
+        cluster.left(user.getUsername());
+        listener.log("Client disconnected: " + user);
+    }
+
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
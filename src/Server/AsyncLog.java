@@ -0,0 +1,106 @@
+package Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Log lines go into a lock-free ring and are formatted and written in batches by one background
+// thread, every flushMillis at most, so engine threads never wait on Swing or the disk. If the
+// writer falls a whole ring behind, new lines are dropped and counted rather than blocking.
+class AsyncLog {
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    private final LogRing ring;
+    private final long flushNanos;
+    private final List<LogSink> sinks = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    AsyncLog(int capacity, int flushMillis) {
+        this.ring = new LogRing(capacity);
+        this.flushNanos = Math.max(1, flushMillis) * 1_000_000L;
+        this.writer = new Thread(this::run, "log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    void addSink(LogSink sink) {
+        sinks.add(sink);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    // Never blocks
+    void log(String message) {
+        if (!ring.offer(System.currentTimeMillis(), message)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    // Writes what is still queued, then closes the sinks
+    void stop() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<String> batch = new ArrayList<>();
+        long reportedDrops = 0;
+        while (running) {
+            LockSupport.parkNanos(flushNanos);
+            reportedDrops = flush(batch, reportedDrops);
+        }
+        flush(batch, reportedDrops);
+        for (LogSink sink : sinks) {
+            sink.close();
+        }
+    }
+
+    private long flush(List<String> batch, long reportedDrops) {
+        ring.drain((time, message) -> batch.add(timestamp(time) + " " + message));
+        long drops = dropped.get();
+        if (drops != reportedDrops) {
+            batch.add(timestamp(System.currentTimeMillis()) + " [log] " + (drops - reportedDrops) + " line(s) dropped");
+        }
+        if (!batch.isEmpty()) {
+            for (LogSink sink : sinks) {
+                sink.write(batch);
+            }
+            batch.clear();
+        }
+        return drops;
+    }
+
+    // HH:mm:ss.SSS in the local zone; java.time's formatter costs ~100 ms of class loading at startup
+    private static String timestamp(long millis) {
+        long ofDay = Math.floorMod(millis + ZONE.getOffset(millis), DAY_MILLIS);
+        StringBuilder text = new StringBuilder(12);
+        pad(text, ofDay / 3_600_000, 2).append(':');
+        pad(text, ofDay / 60_000 % 60, 2).append(':');
+        pad(text, ofDay / 1000 % 60, 2).append('.');
+        return pad(text, ofDay % 1000, 3).toString();
+    }
+
+    private static StringBuilder pad(StringBuilder text, long value, int width) {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            text.append('0');
+        }
+        return text.append(digits);
+    }
+}
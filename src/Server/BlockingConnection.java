@@ -0,0 +1,163 @@
+package Server;
+
+import Shared.User;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Connection served by VirtualThreadChatServer: a blocking channel with one virtual thread
+// reading and one writing. Senders only queue under the lock; the writer does the I/O.
+class BlockingConnection extends ClientConnection {
+    private final ReentrantLock lock = new ReentrantLock(); // not synchronized, which would pin the carrier
+    private final Condition hasFrames = lock.newCondition();
+    private final AbstractChatServer server;
+    private final long flushWindowNanos;
+    private final int flushThresholdBytes;
+    private boolean outputClosed;
+
+    BlockingConnection(SocketChannel channel, User user, ServerConfig config, BufferPool pool,
+            ServerMetrics metrics, AbstractChatServer server) {
+        super(channel, user, config, pool, metrics, true);
+        this.server = server;
+        this.flushWindowNanos = config.getFlushWindowMicros() * 1000L;
+        this.flushThresholdBytes = config.getFlushThresholdBytes();
+    }
+
+    @Override
+    void send(ByteBuffer frame, boolean coalescable) {
+        boolean accepted;
+        lock.lock();
+        try {
+            if (outputClosed) {
+                return;
+            }
+            accepted = outbound.offer(frame, coalescable);
+            hasFrames.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (!accepted) {
+            server.log("Disconnecting slow client: " + user);
+            abort();
+        }
+    }
+
+    // Body of the writer virtual thread. Everything queued goes out in one gathering write,
+    // after waiting up to the flush window for more unless flushThreshold bytes are queued.
+    void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (outbound.isEmpty() && !outputClosed) {
+                        hasFrames.await();
+                    }
+                    if (outbound.isEmpty()) {
+                        break;
+                    }
+                    long deadline = System.nanoTime() + flushWindowNanos;
+                    long left;
+                    while (!outputClosed && outbound.getQueuedBytes() < flushThresholdBytes
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        hasFrames.awaitNanos(left);
+                    }
+                    outbound.drainTo(batch);
+                } finally {
+                    lock.unlock();
+                }
+
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                long written = 0;
+                int calls = 0;
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    written += channel.write(buffers);
+                    calls++;
+                }
+                metrics.written(calls, buffers.length, written);
+                batch.clear();
+            }
+        } catch (IOException e) {
+            abort();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        abort();
+    }
+
+    // Lets the writer send what is already queued, then close the socket
+    void closeOutput() {
+        lock.lock();
+        try {
+            outputClosed = true;
+            hasFrames.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void close() throws IOException {
+        lock.lock();
+        try {
+            outputClosed = true;
+            outbound.release();
+            hasFrames.signal();
+        } finally {
+            lock.unlock();
+        }
+        getInbound().release();
+        channel.close();
+    }
+
+    @Override
+    void setReplay(ReplayBuffer replay) {
+        lock.lock();
+        try {
+            super.setReplay(replay);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void setCompression(Compression.Stream compression) {
+        lock.lock();
+        try {
+            super.setCompression(compression);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The reader is a virtual thread of its own, so it simply sleeps
+    @Override
+    void pauseReading(long nanos) {
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Blocking only this client's own virtual thread costs nobody else anything
+    @Override
+    void offload(Runnable command) {
+        command.run();
+    }
+
+    // The reader thread sees the closed channel and disconnects the client
+    @Override
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
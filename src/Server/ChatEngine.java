@@ -0,0 +1,10 @@
+package Server;
+
+import java.io.IOException;
+
+// A server implementation ServerForm can run. start() blocks until stop() is called.
+public interface ChatEngine {
+    void start() throws IOException;
+
+    void stop() throws IOException;
+}
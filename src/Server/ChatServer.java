@@ -1,214 +1,138 @@
 package Server;
 
-import Shared.User;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.util.*;
-
-public class ChatServer {
-    private final int port;
-    private Selector selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// NIO engine: one acceptor thread plus N worker selectors, and a few threads for commands that
+// may block
+public class ChatServer extends AbstractChatServer {
     private ServerSocketChannel serverSocketChannel;
-    private final Map<SocketChannel, User> clients = new HashMap<>();
-    private final Map<SocketChannel, StringBuilder> clientBuffers = new HashMap<>();
-    private ByteBuffer buffer = ByteBuffer.allocate(1024);
-    private final ServerForm serverForm;
-    private boolean running = true;
+    private Worker[] workers;
+    private ExecutorService commandPool;
+    private int nextWorker;
+
+    public ChatServer(int port, ServerListener listener) {
+        this(new ServerConfig(port), listener);
+    }
 
-    public ChatServer(int port, ServerForm serverForm) {
-        this.port = port;
-        this.serverForm = serverForm;
+    public ChatServer(ServerConfig config, ServerListener listener) {
+        super(config, listener);
     }
 
+    @Override
     public void start() throws IOException {
-        selector = Selector.open();
+        registerCommands();
         serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.bind(new InetSocketAddress(port));
-        serverSocketChannel.configureBlocking(false);
-        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-        
-        serverForm.log("Server started on port " + port + ". Waiting for connections...");
+        serverSocketChannel.bind(new InetSocketAddress(config.getPort()));
+        presence.start();
+        sessions.start();
+        metrics.start();
+        if (journal != null) {
+            journal.start();
+        }
+        cluster.start();
+
+        AtomicInteger commandThreads = new AtomicInteger();
+        commandPool = Executors.newFixedThreadPool(Math.max(1, config.getCommandThreads()), task -> {
+            Thread thread = new Thread(task, "chat-command-" + commandThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = new Worker[Math.max(1, config.getWorkerCount())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(this, i);
+            workers[i].start();
+        }
 
+        listener.log("Server started on port " + config.getPort() + " with " + workers.length
+            + " worker(s). Waiting for connections...");
+        listener.serverStarted(config.getPort());
+
+        // This thread only accepts; each connection is handed to a worker selector round-robin
         while (running) {
             try {
-                selector.select();
-                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-                
-                while (keys.hasNext()) {
-                    SelectionKey key = keys.next();
-                    keys.remove();
-                    
-                    if (!key.isValid()) continue;
-                    
-                    if (key.isAcceptable()) {
-                        acceptClient(key);
-                    } else if (key.isReadable()) {
-                        readMessage(key);
-                    }
-                }
+                SocketChannel clientChannel = serverSocketChannel.accept();
+                metrics.connectionAccepted();
+                workers[nextWorker].accept(clientChannel);
+                nextWorker = (nextWorker + 1) % workers.length;
+            } catch (ClosedChannelException e) {
+                break;
             } catch (IOException e) {
-                serverForm.log("Server error: " + e.getMessage());
+                listener.log("Server error: " + e.getMessage());
             }
         }
+        shutdown();
     }
 
+    @Override
     public void stop() throws IOException {
         running = false;
+        serverSocketChannel.close(); // unblocks accept()
+    }
+
+    private void shutdown() {
+        presence.stop();
+        sessions.stop();
+        metrics.stop();
+        cluster.stop(); // before the notice, which is for our own clients only
         broadcastSystemMessage("[SERVER] Server is shutting down");
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        commandPool.shutdown();
+        for (Worker worker : workers) {
+            worker.stop();
         }
-
-        selector.wakeup();
-        for (SocketChannel channel : clients.keySet()) {
+        for (Worker worker : workers) {
             try {
-                if (channel.isOpen()) {
-                    channel.close();
-                }
-            } catch (IOException e) {
-                serverForm.log("Error closing client channel: " + e.getMessage());
-            }
-        }
-        serverSocketChannel.close();
-        selector.close();
-    }
-
-    private void acceptClient(SelectionKey key) throws IOException {
-        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-        SocketChannel clientChannel = serverChannel.accept();
-        clientChannel.configureBlocking(false);
-        clientChannel.register(selector, SelectionKey.OP_READ);
-        User guestUser = new User("Guest" + clientChannel.hashCode());
-        clients.put(clientChannel, guestUser);
-        serverForm.log("New client connected: " + guestUser);
-        updateUserList(); // Send updated list to all clients
-    }
-
-    private void readMessage(SelectionKey key) throws IOException {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        User user = clients.get(clientChannel);
-        user.updateLastActive();
-
-        // Get or create buffer for this client
-        StringBuilder messageBuffer = clientBuffers.computeIfAbsent(clientChannel, k -> new StringBuilder());
-
-        buffer.clear();
-        try {
-            int bytesRead = clientChannel.read(buffer);
-            if (bytesRead == -1) {
-                disconnectClient(clientChannel);
-                return;
-            }
-
-            buffer.flip();
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-            messageBuffer.append(new String(bytes));
-
-            // Process complete messages
-            int newlineIndex;
-            while ((newlineIndex = messageBuffer.indexOf("\n")) != -1) {
-                String completeMessage = messageBuffer.substring(0, newlineIndex).trim();
-                messageBuffer.delete(0, newlineIndex + 1);
-
-                if (!completeMessage.isEmpty()) {
-                    processClientMessage(clientChannel, user, completeMessage);
-                }
-            }
-        } catch (IOException e) {
-            disconnectClient(clientChannel);
-        } finally {
-            // Update or remove the buffer
-            if (messageBuffer.length() == 0) {
-                clientBuffers.remove(clientChannel);
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
-    }
-    private void processClientMessage(SocketChannel channel, User user, String message) throws IOException {
-        if (message.startsWith("/register ")) {
-            handleRegistration(channel, user, message);
-        } else if (message.startsWith("/status ")) {
-            handleStatusChange(user, message);
-        } else {
-            broadcastMessage(user, message);
+        if (journal != null) {
+            journal.stop();
         }
+        clients.clear();
     }
-    private void handleRegistration(SocketChannel channel, User user, String message) throws IOException {
-        String username = message.substring(10).trim();
-        if (username.isEmpty()) {
-            channel.write(ByteBuffer.wrap("Invalid username\n".getBytes()));
-            return;
-        }
 
-        boolean usernameTaken = clients.values().stream()
-            .anyMatch(u -> u.getUsername().equalsIgnoreCase(username));
-
-        if (usernameTaken) {
-            channel.write(ByteBuffer.wrap("Username already taken\n".getBytes()));
-        } else {
-            user.setUsername(username);
-            broadcastSystemMessage(username + " has joined the chat");
-            updateUserList();
-            serverForm.updateClientList(clients);
+    // Any worker thread; once the pool has shut down the command simply runs on the caller
+    void runCommand(Runnable command) {
+        try {
+            commandPool.execute(command);
+        } catch (RejectedExecutionException e) {
+            command.run();
         }
     }
-    private void handleStatusChange(User user, String message) throws IOException {
-        String newStatus = message.substring(8).trim();
-        user.setStatus(newStatus);
-        broadcastSystemMessage(user.getUsername() + " is now " + newStatus);
-        updateUserList();
-        serverForm.updateClientList(clients);
-    }
-    private void broadcastMessage(User sender, String message) throws IOException {
-        String formattedMessage = sender.getUsername() + ": " + message + "\n";
-        serverForm.log("Broadcasting: " + formattedMessage.trim());
 
-        for (SocketChannel channel : clients.keySet()) {
-            if (channel.isConnected()) {
-                channel.write(ByteBuffer.wrap(formattedMessage.getBytes()));
-            }
-        }
+    NioConnection newConnection(SocketChannel channel, SelectionKey key, Worker worker) {
+        return new NioConnection(channel, key, newGuest(channel), config, bufferPool, metrics, worker);
     }
 
-    private void broadcastSystemMessage(String message) throws IOException {
-        String formattedMessage = "[System] " + message + "\n";
-        serverForm.log(formattedMessage.trim());
-
-        for (SocketChannel channel : clients.keySet()) {
-            if (channel.isConnected()) {
-                channel.write(ByteBuffer.wrap(formattedMessage.getBytes()));
-            }
+    @Override
+    protected void fanOut(OutboundFrame frame, boolean coalescable) {
+        for (Worker worker : workers) {
+            worker.fanOut(frame, coalescable);
         }
     }
 
-    private void disconnectClient(SocketChannel clientChannel) throws IOException {
-        User user = clients.get(clientChannel);
-        clients.remove(clientChannel);
-        try {
-            clientChannel.close();
-        } catch (IOException e) {
-            serverForm.log("Error closing client channel: " + e.getMessage());
-        }
-        broadcastSystemMessage(user.getUsername() + " has left the chat");
-        updateUserList();
-        serverForm.updateClientList(clients); // Explicitly update server form
-        serverForm.log("Client disconnected: " + user);
-    }
-    private void updateUserList() throws IOException {
-        StringBuilder userList = new StringBuilder("/userlist");
-        for (User user : clients.values()) {
-            userList.append(",").append(user.getUsername())
-                   .append(":").append(user.getStatus());
+    // Still one handoff per worker, carrying only that worker's recipients
+    @Override
+    protected void fanOut(Collection<ClientConnection> recipients, OutboundFrame frame, boolean coalescable) {
+        Map<Worker, List<NioConnection>> byWorker = new IdentityHashMap<>();
+        for (ClientConnection connection : recipients) {
+            NioConnection nio = (NioConnection) connection;
+            byWorker.computeIfAbsent(nio.getWorker(), w -> new ArrayList<>()).add(nio);
         }
-        // Send to ALL clients
-        for (SocketChannel channel : clients.keySet()) {
-            if (channel.isConnected()) {
-                channel.write(ByteBuffer.wrap((userList.toString() + "\n").getBytes()));
-            }
+        for (Map.Entry<Worker, List<NioConnection>> entry : byWorker.entrySet()) {
+            entry.getKey().fanOut(entry.getValue(), frame, coalescable);
         }
     }
-}
\ No newline at end of file
+}
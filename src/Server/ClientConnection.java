@@ -0,0 +1,266 @@
+package Server;
+
+import Shared.User;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Per-client state shared by both engines: the user, inbound buffer and outbound queue.
+// Subclasses decide which thread writes the queue to the socket.
+abstract class ClientConnection {
+    protected final SocketChannel channel;
+    protected final User user;
+    protected final OutboundQueue outbound;
+    protected final ServerMetrics metrics;
+    private final InboundBuffer inbound;
+    private final long acceptedNanos = System.nanoTime();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile WireFormat wireFormat; // null until negotiated
+    private volatile boolean handshaken;    // binary handshake done, waiting for REGISTER or RESUME
+    private volatile Session session;       // binary clients only
+    private volatile int protocolVersion;   // negotiated binary version, 0 for text
+    private volatile Compression.Stream compression; // null unless the client asked for it
+    // Heartbeat state: stamped by the reader, looked at by whoever owns the timer
+    private volatile long lastReadMillis = System.currentTimeMillis();
+    private volatile long pingSentMillis; // 0 unless a PING is waiting for any reply
+    private volatile boolean autoAway;    // Away was set by the server, not the user
+    private final ReentrantLock awayLock = new ReentrantLock(); // orders autoAway flips; not a monitor, the reader may be virtual
+    private volatile long claimedMillis = System.currentTimeMillis(); // when the user took its name; the older claim wins in a cluster
+    // Only touched by the thread that reads this connection
+    private final Set<String> rooms = new HashSet<>();
+    private String currentRoom; // where plain messages go
+    private long receivedNanos; // when the latest read returned data
+    private boolean registered; // has picked a name at least once
+    private RateLimits.Quota quota;
+    private boolean floodWarned; // told its messages are dropped since it last got one through
+    private boolean readsHeld;   // buffered messages wait: paused by a rate limit, or being dropped
+    private boolean commandRunning; // a costly command is running elsewhere; buffered messages wait for it
+
+    ClientConnection(SocketChannel channel, User user, ServerConfig config, BufferPool pool,
+            ServerMetrics metrics, boolean blockingReads) {
+        this.channel = channel;
+        this.user = user;
+        this.metrics = metrics;
+        this.outbound = new OutboundQueue(config, metrics);
+        this.inbound = new InboundBuffer(pool, config.getMaxFrameLength(), blockingReads);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    User getUser() {
+        return user;
+    }
+
+    InboundBuffer getInbound() {
+        return inbound;
+    }
+
+    Set<String> getRooms() {
+        return rooms;
+    }
+
+    String getCurrentRoom() {
+        return currentRoom;
+    }
+
+    void setCurrentRoom(String currentRoom) {
+        this.currentRoom = currentRoom;
+    }
+
+    long getAcceptedNanos() {
+        return acceptedNanos;
+    }
+
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    long getLastReadMillis() {
+        return lastReadMillis;
+    }
+
+    long getPingSentMillis() {
+        return pingSentMillis;
+    }
+
+    void setPingSentMillis(long pingSentMillis) {
+        this.pingSentMillis = pingSentMillis;
+    }
+
+    // Any bytes from the client prove it is alive and answer an outstanding PING
+    void markRead(long now) {
+        lastReadMillis = now;
+        pingSentMillis = 0;
+    }
+
+    boolean isAutoAway() {
+        return autoAway;
+    }
+
+    void setAutoAway(boolean autoAway) {
+        this.autoAway = autoAway;
+    }
+
+    ReentrantLock getAwayLock() {
+        return awayLock;
+    }
+
+    long getClaimedMillis() {
+        return claimedMillis;
+    }
+
+    void setClaimedMillis(long claimedMillis) {
+        this.claimedMillis = claimedMillis;
+    }
+
+    // True the first time only
+    boolean markRegistered() {
+        boolean first = !registered;
+        registered = true;
+        return first;
+    }
+
+    RateLimits.Quota getQuota() {
+        return quota;
+    }
+
+    void setQuota(RateLimits.Quota quota) {
+        this.quota = quota;
+    }
+
+    boolean isFloodWarned() {
+        return floodWarned;
+    }
+
+    void setFloodWarned(boolean floodWarned) {
+        this.floodWarned = floodWarned;
+    }
+
+    boolean isReadsHeld() {
+        return readsHeld || commandRunning;
+    }
+
+    void setReadsHeld(boolean readsHeld) {
+        this.readsHeld = readsHeld;
+    }
+
+    void setCommandRunning(boolean commandRunning) {
+        this.commandRunning = commandRunning;
+    }
+
+    // Unsynchronized read from any thread; only for gauges
+    long getQueuedBytes() {
+        return outbound.getQueuedBytes();
+    }
+
+    boolean isHandshaken() {
+        return handshaken;
+    }
+
+    void setHandshaken() {
+        this.handshaken = true;
+    }
+
+    int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    void setSession(Session session) {
+        this.session = session;
+    }
+
+    // From now on every non-snapshot frame this connection queues is numbered in `replay`
+    void setReplay(ReplayBuffer replay) {
+        replay.setWriter(outbound);
+        outbound.setReplay(replay);
+    }
+
+    Compression.Stream getCompression() {
+        return compression;
+    }
+
+    // Before the session starts, after queueing the COMPRESS answer: frames queued from now on
+    // may be compressed
+    void setCompression(Compression.Stream compression) {
+        outbound.setCompression(compression);
+        this.compression = compression;
+    }
+
+    WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    // Only the first caller gets true, so a client is disconnected exactly once
+    boolean markClosed() {
+        return closed.compareAndSet(false, true);
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    // This client's view of the frame's bytes, or null before negotiation finishes. Frames for
+    // the connection's own deflate stream are compressed later, when they are queued.
+    ByteBuffer encode(OutboundFrame frame, boolean coalescable) {
+        WireFormat format = wireFormat;
+        if (format == null) {
+            return null;
+        }
+        ByteBuffer bytes = frame.encoded(format);
+        Compression.Stream stream = compression;
+        if (stream != null && stream.getCompression().isShared(bytes.remaining(), coalescable)) {
+            bytes = frame.deflated(stream.getCompression());
+        }
+        return bytes.duplicate();
+    }
+
+    void send(OutboundFrame frame, boolean coalescable) {
+        Session s = session;
+        if (s != null && (isClosed() || s.getConnection() != this)) {
+            s.deliver(this, frame, coalescable); // recorded for a resume, or forwarded to the new connection
+            return;
+        }
+        ByteBuffer bytes = encode(frame, coalescable);
+        if (bytes != null) {
+            send(bytes, coalescable);
+        }
+    }
+
+    // Safe to call from any thread
+    abstract void send(ByteBuffer frame, boolean coalescable);
+
+    // Called once, from the thread that handles this client's disconnect
+    abstract void close() throws IOException;
+
+    // Safe to call from any thread: has the owning thread disconnect this client
+    abstract void abort();
+
+    // Reader thread, rate limit DELAY policy: take nothing more from this client for `nanos`
+    abstract void pauseReading(long nanos);
+
+    // Reader thread: run a command that may block, taking nothing more from this client until
+    // it is done
+    abstract void offload(Runnable command);
+}
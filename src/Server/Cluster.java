@@ -0,0 +1,471 @@
+package Server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Several servers sharing one chat: every node keeps its own clients and rooms and tells the
+// others about its users, room messages, system messages and direct messages over a full mesh
+// of TCP links (a ClusterPeer dials each node listed in clusterPeers; what comes in on
+// clusterPort is only read). A room message crosses each link once and the receiving node fans
+// it out to its own members, so the bus carries messages, not messages times recipients.
+//
+// Roster changes of local users go through here, under one lock, so a link coming up sees
+// either the change or the user in its initial roster. A name is taken cluster-wide when one
+// node holds it; two nodes that hand out the same name at once both keep the older claim
+// (ties go to the lower node id) and the loser's user is renamed back to its guest name.
+// When a node's link goes quiet for clusterTimeoutMillis its users leave the roster.
+//
+// Without a clusterNodeId everything here falls through to Presence.
+class Cluster {
+    private final AbstractChatServer server;
+    private final ServerConfig config;
+    private final String nodeId; // null when standalone
+    private final List<ClusterPeer> peers = new ArrayList<>();
+    // Not synchronized: virtual reader threads take it and may then park in BlockingConnection.send
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Map<String, RemoteUser> remoteUsers = new HashMap<>(); // lower-cased name -> user
+    private final Map<String, Socket> inboundLinks = new HashMap<>();    // node -> its current link to us
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    Cluster(AbstractChatServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+        this.nodeId = config.getClusterNodeId();
+        if (nodeId != null && config.getClusterPeers() != null) {
+            for (String peer : config.getClusterPeers().split(",")) {
+                if (!peer.isBlank()) {
+                    peers.add(new ClusterPeer(this, config, parseAddress(peer.trim())));
+                }
+            }
+        }
+    }
+
+    private static InetSocketAddress parseAddress(String peer) {
+        int colon = peer.lastIndexOf(':');
+        try {
+            // Resolved on every dial, so a restarted peer may come back under a new address
+            return InetSocketAddress.createUnresolved(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid clusterPeers entry (host:port): " + peer);
+        }
+    }
+
+    boolean isEnabled() {
+        return nodeId != null;
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        running = true;
+        serverSocket = new ServerSocket(config.getClusterPort());
+        Thread acceptor = new Thread(this::acceptLinks, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (ClusterPeer peer : peers) {
+            peer.start();
+        }
+        server.log("Cluster node " + nodeId + " listening on port " + config.getClusterPort() + " with "
+            + peers.size() + " peer(s)");
+    }
+
+    // The other nodes see our links drop and take our users off their rosters
+    void stop() {
+        if (!isEnabled() || !running) {
+            return;
+        }
+        running = false;
+        for (ClusterPeer peer : peers) {
+            peer.stop();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        lock.lock();
+        try {
+            for (Socket link : inboundLinks.values()) {
+                closeQuietly(link);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void log(String message) {
+        server.log(message);
+    }
+
+    byte[] hello() {
+        return ClusterMessage.HELLO.encode(nodeId);
+    }
+
+    // A link to `peer` is open and it told us its id: queue our whole roster ahead of anything else
+    boolean linkUp(ClusterPeer peer) {
+        if (peer.getNodeId().equals(nodeId)) {
+            log("Cluster peer " + peer.getAddress() + " is this node, not dialing it again");
+            return false;
+        }
+        lock.lock();
+        try {
+            List<byte[]> roster = new ArrayList<>();
+            for (ClientConnection connection : server.connections()) {
+                roster.add(userUp(connection));
+            }
+            peer.goLive(roster);
+            log("Cluster link to " + peer.getNodeId() + " up, sent " + roster.size() + " user(s)");
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---- Local roster changes ----
+
+    void joined(ClientConnection connection) {
+        lock.lock();
+        try {
+            server.presence.joined(connection.getUser().getUsername(), connection.getUser().getStatus());
+            if (isEnabled()) {
+                send(userUp(connection));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // After the user took `newName` locally
+    void renamed(ClientConnection connection, String oldName, String newName) {
+        lock.lock();
+        try {
+            server.presence.renamed(oldName, newName);
+            if (isEnabled()) {
+                send(ClusterMessage.USER_DOWN.encode(oldName));
+                send(userUp(connection));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void statusChanged(String name, String status) {
+        lock.lock();
+        try {
+            server.presence.statusChanged(name, status);
+            if (isEnabled()) {
+                send(ClusterMessage.STATUS.encode(name, status));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void left(String name) {
+        lock.lock();
+        try {
+            server.presence.left(name);
+            if (isEnabled()) {
+                send(ClusterMessage.USER_DOWN.encode(name));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True if another node holds the name
+    boolean isRemote(String name) {
+        lock.lock();
+        try {
+            return remoteUsers.containsKey(nameKey(name));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---- Messages ----
+
+    void broadcast(String formattedMessage) {
+        if (isEnabled()) {
+            send(ClusterMessage.BROADCAST.encode(formattedMessage));
+        }
+    }
+
+    void publish(String room, String formattedMessage) {
+        if (isEnabled()) {
+            send(ClusterMessage.ROOM.encode(room, formattedMessage));
+        }
+    }
+
+    // The recipient's name as its node knows it, or null if no node we can reach has it
+    String sendDirect(String from, String to, String text) {
+        if (!isEnabled()) {
+            return null;
+        }
+        RemoteUser user;
+        lock.lock();
+        try {
+            user = remoteUsers.get(nameKey(to));
+        } finally {
+            lock.unlock();
+        }
+        ClusterPeer peer = user == null ? null : peerFor(user.node);
+        if (peer == null) {
+            return null;
+        }
+        peer.send(ClusterMessage.DIRECT.encode(from, user.name, text));
+        return user.name;
+    }
+
+    private void send(byte[] message) {
+        for (ClusterPeer peer : peers) {
+            peer.send(message);
+        }
+    }
+
+    private ClusterPeer peerFor(String node) {
+        for (ClusterPeer peer : peers) {
+            if (peer.isLive() && node.equals(peer.getNodeId())) {
+                return peer;
+            }
+        }
+        return null;
+    }
+
+    private byte[] userUp(ClientConnection connection) {
+        return ClusterMessage.USER_UP.encode(connection.getUser().getUsername(), connection.getUser().getStatus(),
+            Long.toString(connection.getClaimedMillis()));
+    }
+
+    // ---- Inbound links ----
+
+    private void acceptLinks() {
+        while (running) {
+            try {
+                Socket link = serverSocket.accept();
+                Thread reader = new Thread(() -> readLink(link), "cluster-link-" + link.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    log("Cluster accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLink(Socket link) {
+        String node = null;
+        try (link) {
+            link.setSoTimeout(config.getClusterTimeoutMillis());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(link.getInputStream()));
+            ClusterMessage.Received hello = ClusterMessage.read(in);
+            if (hello.type != ClusterMessage.HELLO) {
+                throw new ProtocolException("Expected HELLO, got " + hello.type);
+            }
+            OutputStream out = link.getOutputStream();
+            out.write(hello());
+            out.flush();
+            if (hello.field(0).equals(nodeId)) {
+                return; // a node dialing itself; it gives up when it reads our HELLO
+            }
+            node = hello.field(0);
+            lock.lock();
+            try {
+                if (!running) {
+                    return;
+                }
+                Socket previous = inboundLinks.put(node, link);
+                if (previous != null) {
+                    // Whatever changed while the old link was dying is lost: start from the new roster
+                    closeQuietly(previous);
+                    nodeLost(node, false);
+                }
+            } finally {
+                lock.unlock();
+            }
+            while (running) {
+                handle(node, ClusterMessage.read(in));
+            }
+        } catch (IOException e) {
+            if (node != null && running) {
+                log("Cluster link from " + node + " lost: " + e.getMessage());
+            }
+        } finally {
+            if (node != null) {
+                lock.lock();
+                try {
+                    if (inboundLinks.remove(node, link)) {
+                        nodeLost(node, running);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void handle(String node, ClusterMessage.Received message) throws ProtocolException {
+        switch (message.type) {
+            case USER_UP:
+                long claimed;
+                try {
+                    claimed = Long.parseLong(message.field(2));
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Bad claim time " + message.field(2));
+                }
+                userUp(node, message.field(0), message.field(1), claimed);
+                break;
+            case STATUS:
+                remoteStatus(node, message.field(0), message.field(1));
+                break;
+            case USER_DOWN:
+                userDown(node, message.field(0));
+                break;
+            case BROADCAST:
+                server.announce(message.field(0));
+                break;
+            case ROOM:
+                server.publishRemote(message.field(0), message.field(1));
+                break;
+            case DIRECT:
+                if (!server.deliverDirect(message.field(0), message.field(1), message.field(2))) {
+                    ClusterPeer peer = peerFor(node);
+                    if (peer != null) {
+                        peer.send(ClusterMessage.NOTICE.encode(message.field(0), "No such user: " + message.field(1)));
+                    }
+                }
+                break;
+            case NOTICE:
+                server.notice(message.field(0), message.field(1));
+                break;
+            default:
+                break; // PING, or a late HELLO
+        }
+    }
+
+    private void userUp(String node, String name, String status, long claimed) {
+        lock.lock();
+        try {
+            String key = nameKey(name);
+            ClientConnection local = server.localConnection(key);
+            if (local != null && !wins(node, claimed, nodeId, local.getClaimedMillis())) {
+                return; // the other node renames its user when it sees ours
+            }
+            RemoteUser existing = remoteUsers.get(key);
+            if (existing != null && !existing.node.equals(node)
+                    && !wins(node, claimed, existing.node, existing.claimedMillis)) {
+                return;
+            }
+            if (local != null) {
+                server.revokeName(local, name);
+            }
+            remoteUsers.put(key, new RemoteUser(node, name, status, claimed));
+            if (existing == null) {
+                server.presence.joined(name, status);
+            } else if (!existing.name.equals(name)) {
+                server.presence.renamed(existing.name, name);
+                server.presence.statusChanged(name, status);
+            } else if (!existing.status.equals(status)) {
+                server.presence.statusChanged(name, status);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remoteStatus(String node, String name, String status) {
+        lock.lock();
+        try {
+            RemoteUser user = remoteUsers.get(nameKey(name));
+            if (user != null && user.node.equals(node) && !user.status.equals(status)) {
+                user.status = status;
+                server.presence.statusChanged(user.name, status);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void userDown(String node, String name) {
+        lock.lock();
+        try {
+            String key = nameKey(name);
+            RemoteUser user = remoteUsers.get(key);
+            if (user != null && user.node.equals(node)) {
+                remoteUsers.remove(key);
+                server.presence.left(user.name);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Under the lock
+    private void nodeLost(String node, boolean announce) {
+        int lost = 0;
+        for (Iterator<RemoteUser> it = remoteUsers.values().iterator(); it.hasNext(); ) {
+            RemoteUser user = it.next();
+            if (user.node.equals(node)) {
+                it.remove();
+                server.presence.left(user.name);
+                lost++;
+            }
+        }
+        if (announce) {
+            server.announce("[System] Lost contact with server " + node
+                + (lost > 0 ? ", " + lost + " user(s) left the chat" : ""));
+        }
+    }
+
+    // The older claim wins; the lower node id breaks a tie
+    private static boolean wins(String node, long claimed, String otherNode, long otherClaimed) {
+        return claimed != otherClaimed ? claimed < otherClaimed : node.compareTo(otherNode) < 0;
+    }
+
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static class RemoteUser {
+        final String node;
+        final String name;
+        final long claimedMillis;
+        String status;
+
+        RemoteUser(String node, String name, String status, long claimedMillis) {
+            this.node = node;
+            this.name = name;
+            this.status = status;
+            this.claimedMillis = claimedMillis;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package Server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Messages on the inter-node bus. On the wire: int32 length | type byte | fields, where every
+// field is an int32 length and UTF-8 bytes, and the first length counts everything after it.
+enum ClusterMessage {
+    HELLO(1),     // node id: first message on every link, in both directions
+    USER_UP(2),   // name, status, claimed millis: a user of the sending node (the link opens with all of them)
+    STATUS(3),    // name, status
+    USER_DOWN(4), // name
+    BROADCAST(5), // text: a system message for every client
+    ROOM(6),      // room, text
+    DIRECT(7),    // from, to, text
+    NOTICE(8),    // to, text: a system message for one user
+    PING(9);      // keeps an idle link from timing out
+
+    static final int MAX_LENGTH = 1 << 20;
+    private static final ClusterMessage[] BY_CODE = new ClusterMessage[256];
+
+    static {
+        for (ClusterMessage type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    ClusterMessage(int code) {
+        this.code = code;
+    }
+
+    // Encoded once, then queued for every peer as is
+    byte[] encode(String... fields) {
+        byte[][] bytes = new byte[fields.length][];
+        int length = 1;
+        for (int i = 0; i < fields.length; i++) {
+            bytes[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + bytes[i].length;
+        }
+        ByteBuffer message = ByteBuffer.allocate(4 + length).putInt(length).put((byte) code);
+        for (byte[] field : bytes) {
+            message.putInt(field.length).put(field);
+        }
+        return message.array();
+    }
+
+    // Blocks for one whole message
+    static Received read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_LENGTH) {
+            throw new ProtocolException("Bad cluster message length " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        ClusterMessage type = BY_CODE[body[0] & 0xFF];
+        if (type == null) {
+            throw new ProtocolException("Unknown cluster message type " + (body[0] & 0xFF));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body, 1, length - 1);
+        List<String> fields = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            int size = buffer.remaining() < 4 ? -1 : buffer.getInt();
+            if (size < 0 || size > buffer.remaining()) {
+                throw new ProtocolException("Bad cluster message field");
+            }
+            fields.add(new String(body, buffer.position(), size, StandardCharsets.UTF_8));
+            buffer.position(buffer.position() + size);
+        }
+        return new Received(type, fields.toArray(new String[0]));
+    }
+
+    static class Received {
+        final ClusterMessage type;
+        final String[] fields;
+
+        Received(ClusterMessage type, String[] fields) {
+            this.type = type;
+            this.fields = fields;
+        }
+
+        // Guards against a peer that sent fewer fields than the type calls for
+        String field(int index) throws ProtocolException {
+            if (index >= fields.length) {
+                throw new ProtocolException(type + " without field " + index);
+            }
+            return fields[index];
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The outbound half of the link to one other node: a thread that dials it (again, with backoff,
+// after any failure), trades HELLOs and then writes whatever is queued, in batches. Nothing is
+// queued while the link is down. A queue that grows past clusterQueueBytes gets the link cut
+// rather than trimmed: the peer drops this node's users when the link goes and gets the full
+// list again on reconnect, where a skipped roster change would go unnoticed.
+class ClusterPeer implements Runnable {
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final Cluster cluster;
+    private final ServerConfig config;
+    private final InetSocketAddress address;
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean live;      // HELLOs traded and the roster queued; messages are accepted
+    private volatile String nodeId;     // the peer's, from its HELLO
+    private volatile Socket socket;
+    private volatile boolean running = true;
+
+    ClusterPeer(Cluster cluster, ServerConfig config, InetSocketAddress address) {
+        this.cluster = cluster;
+        this.config = config;
+        this.address = address;
+        this.thread = new Thread(this, "cluster-peer-" + address.getHostString() + ":" + address.getPort());
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        live = false;
+        thread.interrupt();
+        closeSocket();
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    boolean isLive() {
+        return live;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    // Any thread; dropped unless the link is up
+    void send(byte[] message) {
+        if (!live) {
+            return;
+        }
+        if (queuedBytes.addAndGet(message.length) > config.getClusterQueueBytes()) {
+            cluster.log("Cluster link to " + nodeId + " fell too far behind, reconnecting");
+            live = false;
+            closeSocket();
+            return;
+        }
+        queue.add(message);
+    }
+
+    // Under the cluster lock, right after the HELLOs: the roster goes first, then anything sent
+    void goLive(Iterable<byte[]> roster) {
+        queue.clear();
+        queuedBytes.set(0);
+        for (byte[] message : roster) {
+            queue.add(message);
+            queuedBytes.addAndGet(message.length);
+        }
+        live = true;
+    }
+
+    @Override
+    public void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            boolean wasLive = false;
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                    config.getClusterTimeoutMillis());
+                s.setTcpNoDelay(true);
+                s.setSoTimeout(config.getClusterTimeoutMillis());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                out.write(cluster.hello());
+                out.flush();
+                ClusterMessage.Received hello = ClusterMessage.read(in);
+                if (hello.type != ClusterMessage.HELLO) {
+                    throw new ProtocolException("Expected HELLO, got " + hello.type);
+                }
+                nodeId = hello.field(0);
+                if (!cluster.linkUp(this)) {
+                    return; // misconfigured: this is ourselves
+                }
+                wasLive = true;
+                backoff = MIN_BACKOFF_MILLIS;
+                writeLoop(out);
+            } catch (IOException e) {
+                if (wasLive && running) {
+                    cluster.log("Cluster link to " + nodeId + " lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                live = false;
+                socket = null;
+            }
+            try {
+                // Jitter keeps every node from redialing a restarted peer at the same instant
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    // Everything already queued goes out with one flush; an idle link sends a PING instead
+    private void writeLoop(DataOutputStream out) throws IOException, InterruptedException {
+        byte[] ping = ClusterMessage.PING.encode();
+        while (running && live) {
+            byte[] message = queue.poll(config.getClusterHeartbeatMillis(), TimeUnit.MILLISECONDS);
+            if (message == null) {
+                out.write(ping);
+            } else {
+                do {
+                    out.write(message);
+                    queuedBytes.addAndGet(-message.length);
+                } while ((message = queue.poll()) != null);
+            }
+            out.flush();
+        }
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
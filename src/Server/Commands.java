@@ -0,0 +1,99 @@
+package Server;
+
+import Shared.FrameType;
+import Shared.User;
+import java.util.ArrayList;
+import java.util.List;
+
+// The slash commands, registered once at startup. Binary frames that carry a command find it by
+// frame type in an array; "/name args" lines hash the name where it stands in the message into
+// a table whose size and seed were picked so every registered name has a slot to itself. A
+// lookup is one pass over the name plus one comparison, and unknown names miss.
+class Commands {
+    // CHEAP runs on the reading thread; COSTLY may block (disk, locks) and is run elsewhere
+    enum Cost { CHEAP, COSTLY }
+
+    interface Handler {
+        void handle(ClientConnection connection, User user, String args);
+    }
+
+    static class Command {
+        final String name;
+        final Cost cost;
+        final Handler handler;
+
+        Command(String name, Cost cost, Handler handler) {
+            this.name = name;
+            this.cost = cost;
+            this.handler = handler;
+        }
+    }
+
+    private final List<Command> registered = new ArrayList<>();
+    private final Command[] byType = new Command[FrameType.values().length];
+    private Command[] table = new Command[2];
+    private int seed;
+
+    // Startup only; rebuilds the table
+    void register(String name, FrameType type, Cost cost, Handler handler) {
+        Command command = new Command(name, cost, handler);
+        registered.add(command);
+        if (type != null) {
+            byType[type.ordinal()] = command;
+        }
+        buildTable();
+    }
+
+    Command forFrame(FrameType type) {
+        return byType[type.ordinal()];
+    }
+
+    // The command a "/name" or "/name args" message names, or null
+    Command lookup(String message) {
+        int end = message.indexOf(' ');
+        if (end < 0) {
+            end = message.length();
+        }
+        Command command = table[slot(message, 1, end, seed, table.length)];
+        if (command != null && command.name.length() == end - 1
+                && message.regionMatches(1, command.name, 0, end - 1)) {
+            return command;
+        }
+        return null;
+    }
+
+    // Everything after the name, trimmed
+    static String args(String message) {
+        int space = message.indexOf(' ');
+        return space < 0 ? "" : message.substring(space + 1).trim();
+    }
+
+    // Doubles the table until some seed leaves no two names in one slot
+    private void buildTable() {
+        for (int size = Integer.highestOneBit(registered.size() * 2 - 1) << 1; ; size <<= 1) {
+            for (int s = 1; s <= 1024; s++) {
+                Command[] candidate = new Command[size];
+                boolean clash = false;
+                for (Command command : registered) {
+                    int i = slot(command.name, 0, command.name.length(), s, size);
+                    clash |= candidate[i] != null;
+                    candidate[i] = command;
+                }
+                if (!clash) {
+                    table = candidate;
+                    seed = s;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int slot(String s, int from, int to, int seed, int size) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = h * 31 + s.charAt(i);
+        }
+        // The seed picks the multiplier; the top bits of the product are the slot
+        return (h * (0x9E3779B9 + 2 * seed)) >>> (Integer.numberOfLeadingZeros(size) + 1);
+    }
+}
@@ -0,0 +1,90 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+// Deflate for binary clients that asked for it (protocol version 3). Frames under
+// compressionMinBytes go out as they are. The rest go through the connection's own deflate
+// stream, so they compress against everything that client was sent before, at the price of
+// compressing a broadcast once per recipient. Frames of compressionSharedBytes or more, and
+// coalescable snapshots (a queue may drop them, so they cannot be part of a stream), are
+// compressed on their own instead: once per frame, with the same bytes going to everyone.
+class Compression {
+    private final ServerMetrics metrics;
+    private final int level;
+    private final int minBytes;
+    private final int sharedBytes;
+    private final boolean direct;
+    private final Queue<Deflater> idle = new ConcurrentLinkedQueue<>(); // for shared frames
+
+    Compression(ServerConfig config, ServerMetrics metrics) {
+        this.metrics = metrics;
+        this.level = config.getCompressionLevel();
+        this.minBytes = config.getCompressionMinBytes();
+        this.sharedBytes = config.getCompressionSharedBytes();
+        this.direct = config.isDirectBuffers();
+    }
+
+    Stream newStream() {
+        return new Stream();
+    }
+
+    // True if an encoded frame of `size` bytes is compressed on its own rather than in a stream
+    boolean isShared(int size, boolean coalescable) {
+        return size >= minBytes && (coalescable || size >= sharedBytes);
+    }
+
+    // A DEFLATED_SHARED frame, or `frame` itself if compressing does not make it smaller
+    ByteBuffer deflateShared(ByteBuffer frame) {
+        Deflater deflater = idle.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            ByteBuffer deflated = FrameCodec.deflate(frame, deflater, FrameType.DEFLATED_SHARED, direct);
+            metrics.deflated(frame.remaining(), deflated.remaining());
+            return deflated.remaining() < frame.remaining() ? deflated.asReadOnlyBuffer() : frame;
+        } finally {
+            deflater.reset();
+            idle.offer(deflater);
+        }
+    }
+
+    // One connection's deflate stream. Used by whoever may offer to the connection's queue (its
+    // worker, or a holder of its lock), since the client inflates frames in queue order.
+    class Stream {
+        private Deflater deflater; // made for the first frame that needs it: about 256 KiB off-heap
+        private boolean ended;
+
+        Compression getCompression() {
+            return Compression.this;
+        }
+
+        // A DEFLATED frame, or `frame` itself if it is small or already compressed. Everything
+        // that goes through the stream has to be sent, or the client loses track of it.
+        ByteBuffer deflate(ByteBuffer frame) {
+            int size = frame.remaining();
+            if (ended || size < Math.max(minBytes, FrameCodec.HEADER_LENGTH)
+                    || frame.get(frame.position() + 4) == FrameType.DEFLATED_SHARED.getCode()) {
+                return frame;
+            }
+            if (deflater == null) {
+                deflater = new Deflater(level, true);
+            }
+            ByteBuffer deflated = FrameCodec.deflate(frame, deflater, FrameType.DEFLATED, direct);
+            metrics.deflated(size, deflated.remaining());
+            return deflated;
+        }
+
+        void end() {
+            ended = true;
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+}
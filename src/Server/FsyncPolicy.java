@@ -0,0 +1,9 @@
+package Server;
+
+// When journal appends are forced to disk. Both happen on the journal's writer thread, so a
+// message can reach clients a moment before it is on disk, whatever the policy.
+public enum FsyncPolicy {
+    ALWAYS,   // after every message
+    BATCH,    // after every journalFsyncBatch messages per room
+    INTERVAL  // every journalFsyncIntervalMillis, from a background thread
+}
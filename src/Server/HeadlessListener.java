@@ -0,0 +1,32 @@
+package Server;
+
+import Shared.User;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+
+// ServerListener without any Swing: log lines go to the async log's sinks (console, file)
+class HeadlessListener implements ServerListener {
+    private final AsyncLog log;
+
+    HeadlessListener(AsyncLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void log(String message) {
+        log.log(message);
+    }
+
+    @Override
+    public void updateClientList(Map<SocketChannel, User> clients) {
+        // no client list to show
+    }
+
+    @Override
+    public void serverStarted(int port) {
+        long now = System.currentTimeMillis(); // before loading the management classes
+        log.log("Accepting connections on port " + port + ", "
+            + (now - ManagementFactory.getRuntimeMXBean().getStartTime()) + " ms after JVM start");
+    }
+}
@@ -0,0 +1,84 @@
+package Server;
+
+import Shared.FrameType;
+import Shared.User;
+
+// Idle policy, run from the thread that owns a connection's timer (a worker's selector loop,
+// or the heartbeat thread of the blocking engine). Reads only stamp a time on the connection;
+// this looks at the stamps when the timer fires and files the connection under its next deadline.
+//  - a binary client that has sent nothing for heartbeatInterval gets a PING, and is dropped
+//    as dead if nothing at all arrives within heartbeatTimeout (a session can still resume)
+//  - a connection that has not picked a protocol within heartbeatTimeout is dropped
+//  - a user that has done nothing for awayAfter shows as Away until they next do something
+class Heartbeat implements TimingWheel.Expiry<ClientConnection> {
+    static final int TICK_MILLIS = 250;
+    private static final int WHEEL_SLOTS = 512; // about two minutes per turn
+
+    private final AbstractChatServer server;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final long awayAfterMillis;
+    private final long recheckMillis;
+    private final OutboundFrame ping;
+
+    Heartbeat(AbstractChatServer server, ServerConfig config) {
+        this.server = server;
+        this.intervalMillis = config.getHeartbeatIntervalMillis();
+        this.timeoutMillis = config.getHeartbeatTimeoutMillis();
+        this.awayAfterMillis = config.getAwayAfterMillis();
+        this.recheckMillis = intervalMillis > 0 && awayAfterMillis > 0
+            ? Math.min(intervalMillis, awayAfterMillis) : Math.max(intervalMillis, awayAfterMillis);
+        this.ping = new OutboundFrame(FrameType.PING, "", config.isDirectBuffers());
+    }
+
+    // Null when heartbeats and auto-away are both off
+    TimingWheel<ClientConnection> newWheel() {
+        return recheckMillis > 0 ? new TimingWheel<>(TICK_MILLIS, WHEEL_SLOTS, System.currentTimeMillis()) : null;
+    }
+
+    @Override
+    public long expired(ClientConnection connection, long now) {
+        if (connection.isClosed()) {
+            return 0;
+        }
+        long next = now + recheckMillis;
+        WireFormat format = connection.getWireFormat();
+        if (intervalMillis > 0) {
+            long lastRead = connection.getLastReadMillis();
+            long pingSent = connection.getPingSentMillis();
+            if (format == null) {
+                if (now - lastRead >= timeoutMillis) {
+                    server.log("Dropping connection that never logged in: " + connection.getUser());
+                    connection.abort();
+                    return 0;
+                }
+                next = lastRead + timeoutMillis;
+            } else if (format == WireFormat.BINARY && connection.getProtocolVersion() >= 2) {
+                if (pingSent != 0) {
+                    if (now - pingSent >= timeoutMillis) {
+                        server.log("Disconnecting unresponsive client: " + connection.getUser());
+                        connection.abort();
+                        return 0;
+                    }
+                    next = pingSent + timeoutMillis;
+                } else if (now - lastRead >= intervalMillis) {
+                    connection.setPingSentMillis(now); // before sending, so the reply cannot beat it
+                    connection.send(ping, false);
+                    next = now + timeoutMillis;
+                } else {
+                    next = lastRead + intervalMillis;
+                }
+            }
+            // Text clients cannot answer a ping; a dead one fails on a write or fills its queue
+        }
+        if (awayAfterMillis > 0 && format != null && !connection.isAutoAway()) {
+            User user = connection.getUser();
+            if (now - user.getLastActive() >= awayAfterMillis) {
+                server.markAway(connection, now - awayAfterMillis);
+            } else {
+                next = Math.min(next, user.getLastActive() + awayAfterMillis);
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,195 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Inbound bytes of one connection. The channel reads straight into a pooled direct buffer
+// and lines/frames are located in place; a String is only built when a handler asks for
+// one, from complete frames, so UTF-8 sequences split across reads decode correctly.
+class InboundBuffer {
+    private static final int PROBE_BYTES = 256;
+
+    private final BufferPool pool;
+    private final int maxFrameLength;
+    private final ByteBuffer probe; // blocking reads only; null for a selector's connections
+    private ByteBuffer buffer; // write mode, null while nothing is pending
+    private int readIndex;     // first unconsumed byte
+    private int scanIndex;     // where the newline search resumes
+    private FrameType frameType;
+    private int payloadStart;
+    private int payloadEnd;
+
+    InboundBuffer(BufferPool pool, int maxFrameLength) {
+        this(pool, maxFrameLength, false);
+    }
+
+    InboundBuffer(BufferPool pool, int maxFrameLength, boolean blockingReads) {
+        this.pool = pool;
+        this.maxFrameLength = maxFrameLength;
+        this.probe = blockingReads ? ByteBuffer.allocate(Math.min(PROBE_BYTES, pool.getBufferSize())) : null;
+    }
+
+    int readFrom(ReadableByteChannel channel) throws IOException {
+        if (buffer == null && probe != null) {
+            return readIntoProbe(channel);
+        }
+        ensureRoom();
+        return channel.read(buffer);
+    }
+
+    int available() {
+        return buffer == null ? 0 : buffer.position() - readIndex;
+    }
+
+    byte peek() {
+        return buffer.get(readIndex);
+    }
+
+    // Returns the peer's version once all handshake bytes are in, -1 while still waiting
+    int readHandshake() throws ProtocolException {
+        if (available() < FrameCodec.HANDSHAKE_LENGTH) {
+            return -1;
+        }
+        byte[] bytes = new byte[FrameCodec.HANDSHAKE_LENGTH];
+        buffer.get(readIndex, bytes);
+        consume(readIndex + FrameCodec.HANDSHAKE_LENGTH);
+        return FrameCodec.parseHandshake(bytes);
+    }
+
+    // Text protocol: selects the next complete line, trimmed like String.trim()
+    boolean nextLine() throws ProtocolException {
+        if (buffer == null) {
+            return false;
+        }
+        int end = buffer.position();
+        for (int i = Math.max(scanIndex, readIndex); i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                int start = readIndex;
+                int stop = i;
+                while (start < stop && (buffer.get(start) & 0xFF) <= ' ') {
+                    start++;
+                }
+                while (stop > start && (buffer.get(stop - 1) & 0xFF) <= ' ') {
+                    stop--;
+                }
+                frameType = FrameType.CHAT;
+                payloadStart = start;
+                payloadEnd = stop;
+                consume(i + 1);
+                return true;
+            }
+        }
+        scanIndex = end;
+        if (end - readIndex > maxFrameLength) {
+            throw new ProtocolException("Line too long");
+        }
+        return false;
+    }
+
+    // Binary protocol: selects the next complete frame; unknown types are skipped
+    boolean nextFrame() throws ProtocolException {
+        while (available() >= FrameCodec.HEADER_LENGTH) {
+            int length = buffer.getInt(readIndex);
+            if (length < 1 || length > maxFrameLength) {
+                throw new ProtocolException("Bad frame length " + length);
+            }
+            if (available() < 4 + length) {
+                return false;
+            }
+            frameType = FrameType.fromCode(buffer.get(readIndex + 4));
+            payloadStart = readIndex + FrameCodec.HEADER_LENGTH;
+            payloadEnd = readIndex + 4 + length;
+            consume(payloadEnd);
+            if (frameType != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    FrameType getFrameType() {
+        return frameType;
+    }
+
+    int payloadLength() {
+        return payloadEnd - payloadStart;
+    }
+
+    // Valid until the next readFrom()
+    String payloadString() {
+        byte[] bytes = new byte[payloadEnd - payloadStart];
+        buffer.get(payloadStart, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Gives the buffer back to the pool when no partial frame is waiting for more bytes
+    void releaseIfEmpty() {
+        if (buffer != null && available() == 0) {
+            release();
+        }
+    }
+
+    void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+            readIndex = 0;
+            scanIndex = 0;
+        }
+    }
+
+    // A selector only reads a connection that has bytes; a blocking reader waits in read()
+    // itself. It waits on a small heap buffer, so an idle client holds no pooled one, and the
+    // pooled buffer is taken once bytes have arrived.
+    private int readIntoProbe(ReadableByteChannel channel) throws IOException {
+        probe.clear();
+        int bytesRead = channel.read(probe);
+        if (bytesRead > 0) {
+            buffer = pool.acquire();
+            buffer.put(probe.flip());
+        }
+        return bytesRead;
+    }
+
+    // Consumed bytes stay in place until room is needed; the selected payload stays valid
+    private void consume(int newReadIndex) {
+        readIndex = newReadIndex;
+        scanIndex = newReadIndex;
+    }
+
+    private void ensureRoom() throws ProtocolException {
+        if (buffer == null) {
+            buffer = pool.acquire();
+            return;
+        }
+        if (buffer.hasRemaining()) {
+            return;
+        }
+        int unread = available();
+        if (readIndex > 0) {
+            // Slide the partial frame to the front
+            int scanned = scanIndex - readIndex;
+            buffer.flip();
+            buffer.position(readIndex);
+            buffer.compact();
+            readIndex = 0;
+            scanIndex = scanned;
+            return;
+        }
+        if (unread >= maxFrameLength + FrameCodec.HEADER_LENGTH) {
+            throw new ProtocolException("Frame too large");
+        }
+        // One frame is bigger than the buffer: grow outside the pool for this frame only
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2,
+            maxFrameLength + FrameCodec.HEADER_LENGTH));
+        buffer.flip();
+        grown.put(buffer);
+        pool.release(buffer);
+        buffer = grown;
+    }
+}
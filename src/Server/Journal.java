@@ -0,0 +1,123 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only log of room messages under <journalDirectory>/<room>/. Records are the binary
+// ROOM frames exactly as broadcast, so /history hands slices of the mapped segments to the
+// outbound queue without decoding them. Room journals are opened on first use. Appends, and
+// the fsyncs ALWAYS and BATCH ask for, run on one writer thread, never on the thread that
+// publishes the message.
+class Journal {
+    private static final long RETENTION_CHECK_MILLIS = 60_000;
+    private static final long DRAIN_MILLIS = 5_000; // how long stop() waits for queued appends
+
+    private final ServerConfig config;
+    private final ServerListener listener;
+    private final Path directory;
+    private final Map<String, RoomJournal> rooms = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+    private ExecutorService writer;
+
+    Journal(ServerConfig config, ServerListener listener) {
+        this.config = config;
+        this.listener = listener;
+        this.directory = Paths.get(config.getJournalDirectory());
+    }
+
+    void start() {
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "journal-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (config.getJournalFsyncPolicy() == FsyncPolicy.INTERVAL) {
+            long interval = Math.max(1, config.getJournalFsyncIntervalMillis());
+            ticker.scheduleWithFixedDelay(this::force, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        ticker.scheduleWithFixedDelay(this::enforceRetention, RETENTION_CHECK_MILLIS, RETENTION_CHECK_MILLIS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    // Null if the room's journal cannot be opened; the room then runs without history
+    RoomJournal forRoom(String room) {
+        return rooms.computeIfAbsent(room, name -> {
+            try {
+                return RoomJournal.open(directory.resolve(name), config);
+            } catch (IOException e) {
+                listener.log("Journal unavailable for #" + name + ": " + e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    // Any thread; records are written in the order they are handed over, so a room whose
+    // publishes are serialized stays in sequence
+    void append(RoomJournal room, String name, long sequence, ByteBuffer frame) {
+        try {
+            writer.execute(() -> {
+                try {
+                    room.append(sequence, frame);
+                } catch (IOException e) {
+                    listener.log("Journal write failed for #" + name + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // a message racing the shutdown is not journaled
+        }
+    }
+
+    // Appends already queued are written before the journals close
+    void stop() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS)) {
+                    listener.log("Journal writer did not drain in time; unwritten messages are lost");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        for (RoomJournal journal : rooms.values()) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                listener.log("Error closing journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private void force() {
+        for (RoomJournal journal : rooms.values()) {
+            journal.force();
+        }
+    }
+
+    private void enforceRetention() {
+        for (RoomJournal journal : rooms.values()) {
+            try {
+                journal.enforceRetention();
+            } catch (IOException e) {
+                listener.log("Journal retention failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+// One journal file, memory-mapped for both appending and replay. Records are binary ROOM
+// frames with consecutive sequence numbers starting at baseSequence; offsets[i] is where
+// record baseSequence + i starts. The file is preallocated and trimmed when sealed or closed,
+// so after a clean shutdown reopening it does not have to scan a preallocated tail.
+class JournalSegment {
+    private final Path file;
+    private final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private int[] offsets = new int[1024];
+    private int count;
+    private int position;
+    private int forcedPosition;
+    private long lastModified;
+
+    private JournalSegment(Path file, long baseSequence, FileChannel channel, long size) throws IOException {
+        this.file = file;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.lastModified = System.currentTimeMillis();
+    }
+
+    static JournalSegment create(Path file, long baseSequence, int size) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new JournalSegment(file, baseSequence, channel, size);
+    }
+
+    // Rebuilds the offset index by scanning; stops at the first zero, torn or out-of-order record.
+    // The mapping is grown to capacity (0 keeps the file size) so the segment can take appends again.
+    static JournalSegment open(Path file, long baseSequence, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int size = (int) channel.size();
+        JournalSegment segment = new JournalSegment(file, baseSequence, channel, Math.max(size, capacity));
+        segment.recover(size);
+        segment.lastModified = Files.getLastModifiedTime(file).toMillis();
+        return segment;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getNextSequence() {
+        return baseSequence + count;
+    }
+
+    int getSize() {
+        return position;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    // Returns false if the record does not fit; the caller rolls to a new segment
+    boolean append(ByteBuffer frame) {
+        int length = frame.remaining();
+        if (position + length > map.capacity()) {
+            return false;
+        }
+        // Length prefix last, so a crash mid-write leaves a record that recovery rejects
+        map.put(position + 4, frame, frame.position() + 4, length - 4);
+        map.putInt(position, frame.getInt(frame.position()));
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = position;
+        position += length;
+        lastModified = System.currentTimeMillis();
+        return true;
+    }
+
+    // Read-only view of records from..to (inclusive, clamped to this segment), or null if none
+    ByteBuffer slice(long from, long to) {
+        long first = Math.max(from, baseSequence);
+        long last = Math.min(to, getNextSequence() - 1);
+        if (first > last) {
+            return null;
+        }
+        int start = offsets[(int) (first - baseSequence)];
+        int end = last + 1 < getNextSequence() ? offsets[(int) (last + 1 - baseSequence)] : position;
+        return map.slice(start, end - start).asReadOnlyBuffer();
+    }
+
+    void force() {
+        if (forcedPosition < position) {
+            map.force(forcedPosition, position - forcedPosition);
+            forcedPosition = position;
+        }
+    }
+
+    // No more appends: flush, drop the preallocated tail and stamp the file with the last write
+    void seal() throws IOException {
+        force();
+        channel.truncate(position);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+    }
+
+    void close() throws IOException {
+        seal();
+        channel.close();
+    }
+
+    // Live slices stay readable after the file is unlinked
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    // Only the first `size` bytes were in the file; the rest of the mapping is fresh zeros
+    private void recover(int size) {
+        while (position + FrameCodec.HEADER_LENGTH <= size) {
+            int length = map.getInt(position);
+            if (length < 1 || position + 4 + length > size
+                    || map.get(position + 4) != FrameType.ROOM.getCode()
+                    || sequenceAt(position, length) != getNextSequence()) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+            position += 4 + length;
+        }
+        // Clear whatever a crash left behind so it can never be mistaken for records later
+        // (only nonzero bytes are written, so the sparse preallocated tail stays unallocated)
+        for (int i = position; i < size; i++) {
+            if (map.get(i) != 0) {
+                map.put(i, (byte) 0);
+            }
+        }
+        forcedPosition = position;
+    }
+
+    // Payload is "room seq text"
+    private long sequenceAt(int recordStart, int length) {
+        int i = recordStart + FrameCodec.HEADER_LENGTH;
+        int end = recordStart + 4 + length;
+        while (i < end && map.get(i) != ' ') {
+            i++;
+        }
+        long sequence = 0;
+        boolean digits = false;
+        for (i++; i < end && map.get(i) >= '0' && map.get(i) <= '9'; i++) {
+            sequence = sequence * 10 + (map.get(i) - '0');
+            digits = true;
+        }
+        return digits ? sequence : -1;
+    }
+}
@@ -0,0 +1,66 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded multi-producer, single-consumer ring of log lines. Producers claim a slot with one CAS
+// and never wait; when the consumer falls a full ring behind, offer() fails instead of blocking.
+class LogRing {
+    private final int mask;
+    private final String[] messages;
+    private final long[] times;
+    private final AtomicLongArray sequences; // slot i is free for claim n when it holds n
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer only
+
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // next power of two
+        this.mask = size - 1;
+        this.messages = new String[size];
+        this.times = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(long time, String message) {
+        long claim;
+        int slot;
+        while (true) {
+            claim = tail.get();
+            slot = (int) claim & mask;
+            long sequence = sequences.get(slot);
+            if (sequence < claim) {
+                return false; // full
+            }
+            if (sequence == claim && tail.compareAndSet(claim, claim + 1)) {
+                break;
+            }
+        }
+        messages[slot] = message;
+        times[slot] = time;
+        sequences.set(slot, claim + 1); // publishes the slot to the consumer
+        return true;
+    }
+
+    interface Consumer {
+        void accept(long time, String message);
+    }
+
+    // Single consumer: hands over every published line, in claim order
+    int drain(Consumer consumer) {
+        int drained = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                return drained;
+            }
+            consumer.accept(times[slot], messages[slot]);
+            messages[slot] = null;
+            sequences.set(slot, head + mask + 1); // free for the claim one lap later
+            head++;
+            drained++;
+        }
+    }
+}
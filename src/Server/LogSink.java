@@ -0,0 +1,11 @@
+package Server;
+
+import java.util.List;
+
+// Destination for batches of formatted log lines; only called from the log writer thread
+interface LogSink {
+    void write(List<String> lines);
+
+    default void close() {
+    }
+}
@@ -0,0 +1,104 @@
+package Server;
+
+import Shared.User;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// Connection owned by a Worker: the queue is only touched on the worker thread, written at
+// the end of a selector iteration and drained on OP_WRITE readiness
+class NioConnection extends ClientConnection {
+    private final SelectionKey key;
+    private final Worker worker;
+    private long flushPendingSince; // nanoTime of the oldest unflushed frame, 0 if none
+
+    NioConnection(SocketChannel channel, SelectionKey key, User user, ServerConfig config, BufferPool pool,
+            ServerMetrics metrics, Worker worker) {
+        super(channel, user, config, pool, metrics, false);
+        this.key = key;
+        this.worker = worker;
+    }
+
+    Worker getWorker() {
+        return worker;
+    }
+
+    @Override
+    void send(ByteBuffer frame, boolean coalescable) {
+        worker.send(this, frame, coalescable);
+    }
+
+    // Queues a frame; the worker writes it later, together with whatever else is queued by then.
+    // Returns false if the slow-client policy says this connection must be closed.
+    boolean enqueue(ByteBuffer frame, boolean coalescable) {
+        return outbound.offer(frame, coalescable);
+    }
+
+    long getFlushPendingSince() {
+        return flushPendingSince;
+    }
+
+    void setFlushPendingSince(long flushPendingSince) {
+        this.flushPendingSince = flushPendingSince;
+    }
+
+    // The socket is full; OP_WRITE readiness will drain the queue
+    boolean isWaitingForWrite() {
+        return key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0;
+    }
+
+    // Writes queued frames until the socket buffer is full, then waits for OP_WRITE
+    void flush() throws IOException {
+        boolean drained = outbound.writeTo(channel);
+        if (key.isValid()) {
+            int ops = key.interestOps();
+            int wanted = drained ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE;
+            if (wanted != ops) {
+                key.interestOps(wanted);
+            }
+        }
+    }
+
+    @Override
+    void abort() {
+        worker.disconnect(this);
+    }
+
+    // Buffered messages wait too; the worker catches up on them when the pause is over
+    @Override
+    void pauseReading(long nanos) {
+        setReadsHeld(true);
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        worker.resumeLater(this, nanos);
+    }
+
+    // The command pool runs it; the worker catches up on buffered messages afterwards
+    @Override
+    void offload(Runnable command) {
+        setCommandRunning(true);
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        worker.offload(this, command);
+    }
+
+    void resumeReads() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    @Override
+    void close() throws IOException {
+        outbound.release();
+        getInbound().release();
+        if (worker != null) {
+            worker.remove(this);
+        }
+        key.cancel();
+        channel.close();
+    }
+}
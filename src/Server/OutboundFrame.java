@@ -0,0 +1,116 @@
+package Server;
+
+import Shared.FrameCodec;
+import Shared.FrameType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+// A server-to-client message, encoded lazily at most once per wire format (and compressed at
+// most once) no matter how many recipients it has. Recipients get read-only duplicates of the
+// cached bytes.
+class OutboundFrame {
+    private static final AtomicIntegerFieldUpdater<OutboundFrame> PENDING_FAN_OUTS =
+        AtomicIntegerFieldUpdater.newUpdater(OutboundFrame.class, "pendingFanOuts");
+
+    private final FrameType type;
+    private final String payload;
+    private final boolean direct;
+    private final OutboundFrame textForm; // what text clients get instead, or null
+    private volatile ByteBuffer text;
+    private volatile ByteBuffer binary;
+    private volatile ByteBuffer deflated; // DEFLATED_SHARED, or `binary` if that is no bigger
+    private long receivedNanos;                  // when the message behind this frame was read; 0 if untimed
+    private volatile int pendingFanOuts = 1;     // the publisher's own, plus one per fan-out task
+
+    OutboundFrame(FrameType type, String payload, boolean direct) {
+        this(type, payload, null, direct);
+    }
+
+    // Text clients have no use for e.g. a PRESENCE delta and are sent `textForm` in its place
+    OutboundFrame(FrameType type, String payload, OutboundFrame textForm, boolean direct) {
+        this.type = type;
+        this.payload = payload;
+        this.textForm = textForm;
+        this.direct = direct;
+    }
+
+    FrameType getType() {
+        return type;
+    }
+
+    String getPayload() {
+        return payload;
+    }
+
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    // Before fanOut(); fan-out tasks read it after the queue handoff
+    void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    void beginFanOut() {
+        PENDING_FAN_OUTS.incrementAndGet(this);
+    }
+
+    // True for the call that ends the last pending fan-out
+    boolean endFanOut() {
+        return PENDING_FAN_OUTS.decrementAndGet(this) == 0;
+    }
+
+    // A benign race may encode twice; both results are identical
+    ByteBuffer encoded(WireFormat format) {
+        if (format == WireFormat.BINARY) {
+            ByteBuffer bytes = binary;
+            if (bytes == null) {
+                binary = bytes = FrameCodec.encode(type, payload, direct).asReadOnlyBuffer();
+            }
+            return bytes;
+        }
+        if (textForm != null) {
+            return textForm.encoded(format);
+        }
+        ByteBuffer bytes = text;
+        if (bytes == null) {
+            text = bytes = encodeText();
+        }
+        return bytes;
+    }
+
+    // Same race as above
+    ByteBuffer deflated(Compression compression) {
+        ByteBuffer bytes = deflated;
+        if (bytes == null) {
+            deflated = bytes = compression.deflateShared(encoded(WireFormat.BINARY));
+        }
+        return bytes;
+    }
+
+    private ByteBuffer encodeText() {
+        String line;
+        if (type == FrameType.USERLIST) {
+            // Text clients predate versions: "/userlist,name:status,...", never without the comma
+            int comma = payload.indexOf(',');
+            line = "/userlist" + (comma < 0 ? "," : payload.substring(comma));
+        } else if (type == FrameType.ROOM) {
+            // "room seq text" -> "[room #seq] text". The lobby keeps the plain "user: text" of the
+            // text clients that predate rooms; only clients that /join somewhere see the tags.
+            int room = payload.indexOf(' ');
+            int seq = payload.indexOf(' ', room + 1);
+            String text = payload.substring(seq + 1).replace('\n', ' ');
+            line = payload.startsWith(Rooms.LOBBY + " ") ? text
+                : "[" + payload.substring(0, room) + " #" + payload.substring(room + 1, seq) + "] " + text;
+        } else {
+            line = payload.replace('\n', ' '); // a newline would split the line for text clients
+        }
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.wrap(bytes);
+        if (direct) {
+            frame.put(bytes).flip();
+        }
+        return frame.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,174 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+
+// Frames waiting to be written to one client, with watermark-based slow-client handling.
+// Not thread-safe: callers either own it from a single thread or guard it with a lock.
+class OutboundQueue {
+    private static final int MAX_GATHER = 64; // frames per write call
+    // Scratch array for gathering writes; queues are only written by their owning thread
+    private static final ThreadLocal<ByteBuffer[]> GATHER = ThreadLocal.withInitial(() -> new ByteBuffer[MAX_GATHER]);
+
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private ByteBuffer queuedSnapshot; // unsent coalescable frame, if any
+    private long queuedBytes;
+    private boolean backlogged;
+    private long droppedFrames;
+    private ReplayBuffer replay; // set for resumable sessions
+    private Compression.Stream compression; // null unless the client negotiated it
+
+    OutboundQueue(ServerConfig config, ServerMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    // Returns false if the slow-client policy says the connection must be closed
+    boolean offer(ByteBuffer frame, boolean coalescable) {
+        int size = frame.remaining();
+        if (!backlogged && queuedBytes > 0 && queuedBytes + size > config.getHighWatermark()) {
+            backlogged = true;
+        }
+
+        if (backlogged) {
+            switch (config.getSlowClientPolicy()) {
+                case DISCONNECT:
+                    record(frame, coalescable); // the client gets it when it resumes
+                    return false;
+                case COALESCE:
+                    if (coalescable) {
+                        replaceSnapshot(frame);
+                        return true;
+                    }
+                    droppedFrames++;
+                    return true;
+                default:
+                    droppedFrames++;
+                    return true;
+            }
+        }
+
+        record(frame, coalescable);
+        // Only after the checks above: a frame that went through the stream must not be dropped
+        if (compression != null && !coalescable) {
+            frame = compression.deflate(frame);
+        }
+        frames.addLast(frame);
+        queuedBytes += frame.remaining();
+        if (coalescable) {
+            queuedSnapshot = frame;
+        }
+        return true;
+    }
+
+    void setReplay(ReplayBuffer replay) {
+        this.replay = replay;
+    }
+
+    void setCompression(Compression.Stream compression) {
+        this.compression = compression;
+    }
+
+    // Writes queued frames, up to MAX_GATHER per gathering write, until the channel stops
+    // accepting bytes; true once drained
+    boolean writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] gather = GATHER.get();
+        int calls = 0;
+        int written = 0;
+        long bytes = 0;
+        while (!frames.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer frame : frames) {
+                gather[count++] = frame;
+                if (count == gather.length) {
+                    break;
+                }
+            }
+            long n = channel.write(gather, 0, count);
+            calls++;
+            queuedBytes -= n;
+            bytes += n;
+            boolean full = gather[count - 1].hasRemaining(); // the socket took less than offered
+            Arrays.fill(gather, 0, count, null);
+
+            ByteBuffer head;
+            while ((head = frames.peekFirst()) != null && !head.hasRemaining()) {
+                frames.pollFirst();
+                written++;
+                if (head == queuedSnapshot) {
+                    queuedSnapshot = null;
+                }
+            }
+            if (full) {
+                break;
+            }
+        }
+        metrics.written(calls, written, bytes);
+        checkRecovered();
+        return frames.isEmpty();
+    }
+
+    // Hands every queued frame to a writer that sends them outside any lock
+    void drainTo(Collection<ByteBuffer> batch) {
+        batch.addAll(frames);
+        clear();
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    void clear() {
+        frames.clear();
+        queuedSnapshot = null;
+        queuedBytes = 0;
+        checkRecovered();
+    }
+
+    // The connection is closing: drops what is queued and frees the deflate stream
+    void release() {
+        clear();
+        if (compression != null) {
+            compression.end();
+        }
+    }
+
+    private void record(ByteBuffer frame, boolean coalescable) {
+        if (replay != null && !coalescable) {
+            replay.record(this, frame);
+        }
+    }
+
+    private void checkRecovered() {
+        if (backlogged && queuedBytes <= config.getLowWatermark()) {
+            backlogged = false;
+        }
+    }
+
+    private void replaceSnapshot(ByteBuffer frame) {
+        // A partially written snapshot has to go out whole, so only replace untouched ones
+        ByteBuffer old = queuedSnapshot;
+        if (old != null && !(old == frames.peekFirst() && old.position() > 0)) {
+            frames.removeLastOccurrence(old);
+            queuedBytes -= old.remaining();
+            droppedFrames++;
+        }
+        frames.addLast(frame);
+        queuedBytes += frame.remaining();
+        queuedSnapshot = frame;
+    }
+}
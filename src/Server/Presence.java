@@ -0,0 +1,159 @@
+package Server;
+
+import Shared.FrameType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Versioned roster. Changes are collected as they happen and published once per tick as a
+// single PRESENCE delta: "version,+name:status,=name:status,~old:new,-name" (joined, status
+// changed, renamed, left). A USERLIST snapshot "version,name:status,..." is only sent to a
+// client that just connected or that saw a gap in the versions. Text clients know nothing of
+// deltas or versions and get the whole list, as "/userlist,name:status,...", every tick instead.
+class Presence {
+    private final AbstractChatServer server;
+    private final ServerConfig config;
+    // Not synchronized: snapshots are queued under it, and a virtual thread that may park in
+    // BlockingConnection.send while holding a monitor pins its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Map<String, String> roster = new LinkedHashMap<>(); // name -> status at `version`
+    private final List<String> pending = new ArrayList<>();
+    private long version;
+    private OutboundFrame snapshot; // of `version`, encoded (and compressed) once for everyone asking
+    private ScheduledExecutorService ticker;
+
+    Presence(AbstractChatServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-tick");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(1, config.getPresenceTickMillis());
+        ticker.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    void joined(String name, String status) {
+        change("+" + name + ":" + status);
+    }
+
+    void statusChanged(String name, String status) {
+        change("=" + name + ":" + status);
+    }
+
+    void renamed(String oldName, String newName) {
+        change("~" + oldName + ":" + newName);
+    }
+
+    void left(String name) {
+        change("-" + name);
+    }
+
+    private void change(String change) {
+        lock.lock();
+        try {
+            pending.add(change);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sent under the lock so no delta can be queued between building and sending it
+    void sendSnapshot(ClientConnection connection) {
+        lock.lock();
+        try {
+            if (snapshot == null) {
+                snapshot = new OutboundFrame(FrameType.USERLIST, snapshotPayload(), config.isDirectBuffers());
+            }
+            connection.send(snapshot, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // "version,name:status,..."
+    String snapshotPayload() {
+        lock.lock();
+        try {
+            StringBuilder payload = new StringBuilder().append(version);
+            for (Map.Entry<String, String> entry : roster.entrySet()) {
+                payload.append(',').append(entry.getKey()).append(':').append(entry.getValue());
+            }
+            return payload.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves the roster to the next version; returns that version's delta, or null if nothing changed
+    String applyPending() {
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return null;
+            }
+            version++;
+            snapshot = null;
+            StringBuilder payload = new StringBuilder().append(version);
+            for (String change : pending) {
+                apply(change);
+                payload.append(',').append(change);
+            }
+            pending.clear();
+            return payload.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tick() {
+        lock.lock();
+        try {
+            String delta = applyPending();
+            if (delta == null) {
+                return;
+            }
+            // The new version's snapshot is what text clients get, and is reused for new clients
+            snapshot = new OutboundFrame(FrameType.USERLIST, snapshotPayload(), config.isDirectBuffers());
+            // Deltas are not coalescable: a client that misses one asks for a snapshot
+            server.broadcast(new OutboundFrame(FrameType.PRESENCE, delta, snapshot, config.isDirectBuffers()));
+        } finally {
+            lock.unlock();
+        }
+        server.listener.updateClientList(server.clients);
+    }
+
+    private void apply(String change) {
+        String args = change.substring(1);
+        int colon = args.indexOf(':');
+        switch (change.charAt(0)) {
+            case '+':
+            case '=':
+                roster.put(args.substring(0, colon), args.substring(colon + 1));
+                break;
+            case '~':
+                String status = roster.remove(args.substring(0, colon));
+                roster.put(args.substring(colon + 1), status != null ? status : "Online");
+                break;
+            default:
+                roster.remove(args);
+                break;
+        }
+    }
+}
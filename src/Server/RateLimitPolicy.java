@@ -0,0 +1,8 @@
+package Server;
+
+// What to do with a message from a client that is over its rate limit
+public enum RateLimitPolicy {
+    DROP,       // discard it and tell the sender
+    DELAY,      // handle it, then stop reading from the client until it is back under the limit
+    DISCONNECT  // close the connection
+}
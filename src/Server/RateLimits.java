@@ -0,0 +1,97 @@
+package Server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Flood protection. Every inbound message draws from a message bucket and a byte bucket. A
+// connection starts with buckets of its own; once it registers it shares the ones kept for that
+// username, so reconnecting or renaming does not refill them. Room messages also draw their
+// fan-out bytes (size times recipients) from one server-wide bucket, which caps egress no matter
+// how many clients are sending.
+class RateLimits {
+    private static final int MIN_PRUNE_SIZE = 1024;
+
+    private final ServerConfig config;
+    private final Map<String, Quota> byUser = new ConcurrentHashMap<>();
+    private final TokenBucket fanOut; // guarded by itself
+    private int pruneAt = MIN_PRUNE_SIZE;
+
+    RateLimits(ServerConfig config) {
+        this.config = config;
+        this.fanOut = new TokenBucket(config.getFanOutBytesPerSecond(), config.getFanOutBytesPerSecond(),
+            System.nanoTime());
+    }
+
+    Quota newQuota() {
+        return new Quota(config, System.nanoTime());
+    }
+
+    // Registration: the buckets kept for `name`, unless the connection's own are deeper in debt
+    Quota forUser(String name, Quota current) {
+        long now = System.nanoTime();
+        prune(now);
+        return byUser.merge(name, current, (kept, mine) -> mine.waitNanos(now) > kept.waitNanos(now) ? mine : kept);
+    }
+
+    // The user left or renamed; buckets that have refilled are not worth keeping
+    void release(String name, Quota quota) {
+        if (quota != null && quota.isFull(System.nanoTime())) {
+            byUser.remove(name, quota);
+        }
+    }
+
+    // Nanoseconds until there is fan-out budget again, 0 if `bytes` were taken
+    long takeFanOut(long bytes, boolean overdraw) {
+        if (config.getFanOutBytesPerSecond() == 0) {
+            return 0;
+        }
+        synchronized (fanOut) {
+            long now = System.nanoTime();
+            long wait = fanOut.waitNanos(now);
+            if (wait > 0 && !overdraw) {
+                return wait;
+            }
+            fanOut.take(bytes);
+            return overdraw ? fanOut.waitNanos(now) : 0;
+        }
+    }
+
+    // Buckets of users who are still connected stay reachable through their connections, so
+    // dropping full ones is always safe. Amortized: only when the map has doubled since last time.
+    private synchronized void prune(long now) {
+        if (byUser.size() >= pruneAt) {
+            byUser.values().removeIf(quota -> quota.isFull(now));
+            pruneAt = Math.max(MIN_PRUNE_SIZE, byUser.size() * 2);
+        }
+    }
+
+    static class Quota {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        Quota(ServerConfig config, long now) {
+            this.messages = new TokenBucket(config.getMessagesPerSecond(), config.getMessageBurst(), now);
+            this.bytes = new TokenBucket(config.getBytesPerSecond(), config.getByteBurst(), now);
+        }
+
+        // Nanoseconds until the sender is back under its limits, 0 if the message was taken.
+        // With `overdraw` the message is always taken and the result says how long to pause.
+        synchronized long take(int size, long now, boolean overdraw) {
+            long wait = waitNanos(now);
+            if (wait > 0 && !overdraw) {
+                return wait;
+            }
+            messages.take(1);
+            bytes.take(size);
+            return overdraw ? waitNanos(now) : 0;
+        }
+
+        synchronized long waitNanos(long now) {
+            return Math.max(messages.waitNanos(now), bytes.waitNanos(now));
+        }
+
+        synchronized boolean isFull(long now) {
+            return messages.isFull(now) && bytes.isFull(now);
+        }
+    }
+}
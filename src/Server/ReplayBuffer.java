@@ -0,0 +1,45 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// The last N frames sent on a session, numbered from 1 in the order the client receives them.
+// Snapshot frames are not recorded: they may be coalesced away and the client does not count them.
+// Only the current writer's queue may record, so a replaced connection cannot skew the numbering.
+class ReplayBuffer {
+    private final ByteBuffer[] frames;
+    private long lastSequence; // number of the newest recorded frame
+    private OutboundQueue writer;
+
+    ReplayBuffer(int capacity) {
+        this.frames = new ByteBuffer[Math.max(1, capacity)];
+    }
+
+    synchronized void setWriter(OutboundQueue writer) {
+        this.writer = writer;
+    }
+
+    // `frame` must be unread; a read-only view of it is kept, the bytes are shared
+    synchronized void record(OutboundQueue from, ByteBuffer frame) {
+        if (from != writer) {
+            return;
+        }
+        lastSequence++;
+        frames[(int) (lastSequence % frames.length)] = frame.asReadOnlyBuffer();
+    }
+
+    // Frames after lastSeen, handing recording over to a new queue; null if some of them
+    // have already been overwritten (or lastSeen is from the future)
+    synchronized List<ByteBuffer> takeOver(OutboundQueue newWriter, long lastSeen) {
+        if (lastSeen > lastSequence || lastSeen < lastSequence - frames.length) {
+            return null;
+        }
+        List<ByteBuffer> missed = new ArrayList<>();
+        for (long seq = lastSeen + 1; seq <= lastSequence; seq++) {
+            missed.add(frames[(int) (seq % frames.length)].duplicate());
+        }
+        writer = newWriter;
+        return missed;
+    }
+}
@@ -0,0 +1,80 @@
+package Server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Appends to `file`; past maxBytes it becomes file.1 (file.1 becomes file.2, ...) and only
+// `keep` old files are kept
+class RollingFileSink implements LogSink {
+    private final Path file;
+    private final long maxBytes;
+    private final int keep;
+    private BufferedWriter out;
+    private long size;
+
+    RollingFileSink(String file, long maxBytes, int keep) throws IOException {
+        this.file = Paths.get(file);
+        this.maxBytes = maxBytes;
+        this.keep = keep;
+        open();
+    }
+
+    @Override
+    public void write(List<String> lines) {
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.newLine();
+                size += line.length() + 1; // close enough for deciding when to roll
+            }
+            out.flush();
+            if (size >= maxBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            System.err.println("Log file error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Log file error: " + e.getMessage());
+        }
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        Files.deleteIfExists(rolled(keep));
+        for (int i = keep - 1; i >= 1; i--) {
+            if (Files.exists(rolled(i))) {
+                Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (keep > 0) {
+            Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        open();
+    }
+
+    private Path rolled(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void open() throws IOException {
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+        size = Files.size(file);
+    }
+}
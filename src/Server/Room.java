@@ -0,0 +1,77 @@
+package Server;
+
+import Shared.FrameType;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A named channel. Messages carry a per-room sequence number so clients can spot gaps;
+// with a journal the numbering continues across restarts.
+class Room {
+    private final String name;
+    private final Set<ClientConnection> subscribers = ConcurrentHashMap.newKeySet();
+    private final Journal journal;     // null without journaling
+    private final RoomJournal records; // this room's journal; null without journaling
+    // Not synchronized: publishing queues frames, which may park in BlockingConnection.send
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong sequence; // advanced under lock; outlives the room, see Rooms
+
+    Room(String name, Journal journal, AtomicLong sequence) {
+        this.name = name;
+        this.records = journal == null ? null : journal.forRoom(name);
+        this.journal = records == null ? null : journal;
+        this.sequence = sequence;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Set<ClientConnection> getSubscribers() {
+        return subscribers;
+    }
+
+    // Numbering and queueing happen under one lock, so every subscriber sees ascending numbers
+    // and the journal gets the records in order. The disk write itself happens later, on the
+    // journal's writer thread.
+    void publish(AbstractChatServer server, String text, boolean direct, long receivedNanos) {
+        lock.lock();
+        try {
+            long number = sequence.incrementAndGet();
+            OutboundFrame frame = new OutboundFrame(FrameType.ROOM, name + " " + number + " " + text, direct);
+            frame.setReceivedNanos(receivedNanos);
+            if (journal != null) {
+                journal.append(records, name, number, frame.encoded(WireFormat.BINARY));
+            }
+            server.fanOut(subscribers, frame, false);
+            server.fanOutFinished(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getSequence() {
+        return sequence.get();
+    }
+
+    // Session resume: swapped under the publish lock, so each message goes to exactly one of them
+    void replace(ClientConnection from, ClientConnection to) {
+        lock.lock();
+        try {
+            subscribers.remove(from);
+            subscribers.add(to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Binary ROOM frames for messages from..to that are retained and already written; the
+    // newest messages may still be on their way to the journal
+    List<ByteBuffer> history(long from, long to) {
+        return records == null ? Collections.emptyList() : records.read(from, to);
+    }
+}
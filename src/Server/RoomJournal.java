@@ -0,0 +1,121 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// The journal of one room: a directory of segments named after their first sequence number.
+// Only the newest segment takes appends; older ones are sealed and deleted by retention.
+class RoomJournal {
+    private final Path directory;
+    private final ServerConfig config;
+    private final ArrayDeque<JournalSegment> segments = new ArrayDeque<>(); // oldest first
+    private int unforced;
+    private boolean closed;
+
+    private RoomJournal(Path directory, ServerConfig config) {
+        this.directory = directory;
+        this.config = config;
+    }
+
+    static RoomJournal open(Path directory, ServerConfig config) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null); // zero-padded names sort by sequence
+        RoomJournal journal = new RoomJournal(directory, config);
+        for (int i = 0; i < files.size(); i++) {
+            String name = files.get(i).getFileName().toString();
+            long base = Long.parseLong(name.substring(0, name.length() - ".seg".length()));
+            // The newest segment takes appends again
+            int capacity = i == files.size() - 1 ? config.getJournalSegmentBytes() : 0;
+            journal.segments.add(JournalSegment.open(files.get(i), base, capacity));
+        }
+        journal.enforceRetention();
+        return journal;
+    }
+
+    // 0 for a room that has never had a message
+    synchronized long lastSequence() {
+        JournalSegment active = segments.peekLast();
+        return active == null ? 0 : active.getNextSequence() - 1;
+    }
+
+    synchronized void append(long sequence, ByteBuffer frame) throws IOException {
+        if (closed) {
+            return; // a message racing the shutdown
+        }
+        JournalSegment active = segments.peekLast();
+        // A gap in the numbers (e.g. a failed append) also starts a segment, keeping offsets dense
+        if (active == null || active.getNextSequence() != sequence || !active.append(frame)) {
+            if (active != null) {
+                active.seal();
+            }
+            active = JournalSegment.create(directory.resolve(String.format("%020d.seg", sequence)), sequence,
+                Math.max(config.getJournalSegmentBytes(), frame.remaining()));
+            segments.add(active);
+            enforceRetention();
+            active.append(frame);
+        }
+        if (config.getJournalFsyncPolicy() == FsyncPolicy.ALWAYS
+                || (config.getJournalFsyncPolicy() == FsyncPolicy.BATCH && ++unforced >= config.getJournalFsyncBatch())) {
+            active.force();
+            unforced = 0;
+        }
+    }
+
+    // Slices of the mapped segments covering from..to, ready to be written to a socket as is
+    synchronized List<ByteBuffer> read(long from, long to) {
+        List<ByteBuffer> slices = new ArrayList<>();
+        for (JournalSegment segment : segments) {
+            if (segment.getNextSequence() <= from || segment.getBaseSequence() > to) {
+                continue;
+            }
+            ByteBuffer slice = segment.slice(from, to);
+            if (slice != null) {
+                slices.add(slice);
+            }
+        }
+        return slices;
+    }
+
+    synchronized void force() {
+        JournalSegment active = segments.peekLast();
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    // Drops the oldest sealed segments while the room is over its size or age budget
+    synchronized void enforceRetention() throws IOException {
+        long total = 0;
+        for (JournalSegment segment : segments) {
+            total += segment.getSize();
+        }
+        long cutoff = System.currentTimeMillis() - config.getJournalRetentionMillis();
+        while (segments.size() > 1) {
+            JournalSegment oldest = segments.peekFirst();
+            if (total <= config.getJournalRetentionBytes() && oldest.getLastModified() >= cutoff) {
+                break;
+            }
+            segments.pollFirst();
+            total -= oldest.getSize();
+            oldest.delete();
+        }
+    }
+
+    synchronized void close() throws IOException {
+        for (JournalSegment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        closed = true;
+    }
+}
@@ -0,0 +1,84 @@
+package Server;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// Room name -> subscribers index, so a room message only touches that room's members.
+// Empty rooms are dropped, their numbering is not; the lobby, which every client joins on connect,
+// always exists.
+class Rooms {
+    static final String LOBBY = "lobby";
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Journal journal; // null without journaling
+    // Kept after a room is dropped: a room re-created under the same name carries on numbering.
+    // Starting again from the journal would reuse numbers whose records are still queued.
+    private final Map<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+
+    Rooms(Journal journal) {
+        this.journal = journal;
+        rooms.put(LOBBY, newRoom(LOBBY));
+    }
+
+    static boolean isValidName(String name) {
+        return VALID_NAME.matcher(name).matches();
+    }
+
+    Room get(String name) {
+        return rooms.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    Room join(String name, ClientConnection connection) {
+        Room room = rooms.compute(name.toLowerCase(Locale.ROOT), (key, existing) -> {
+            Room r = existing != null ? existing : newRoom(key);
+            r.getSubscribers().add(connection);
+            return r;
+        });
+        connection.getRooms().add(room.getName());
+        return room;
+    }
+
+    // Returns false if the connection was not in the room
+    boolean leave(String name, ClientConnection connection) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (!connection.getRooms().remove(key)) {
+            return false;
+        }
+        rooms.computeIfPresent(key, (k, room) -> {
+            room.getSubscribers().remove(connection);
+            return room.getSubscribers().isEmpty() && !k.equals(LOBBY) ? null : room;
+        });
+        return true;
+    }
+
+    // Session resume: `to` takes `from`'s place in every room
+    void transfer(ClientConnection from, ClientConnection to) {
+        for (String name : from.getRooms()) {
+            Room room = rooms.get(name);
+            if (room != null) {
+                room.replace(from, to);
+                to.getRooms().add(name);
+            }
+        }
+        to.setCurrentRoom(from.getCurrentRoom());
+    }
+
+    void leaveAll(ClientConnection connection) {
+        for (String name : connection.getRooms().toArray(new String[0])) {
+            leave(name, connection);
+        }
+    }
+
+    // The first room of a name since startup picks up the journal's numbering
+    private Room newRoom(String name) {
+        AtomicLong sequence = sequences.computeIfAbsent(name, key -> {
+            RoomJournal records = journal == null ? null : journal.forRoom(key);
+            return new AtomicLong(records == null ? 0 : records.lastSequence());
+        });
+        return new Room(name, journal, sequence);
+    }
+}
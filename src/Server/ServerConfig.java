@@ -0,0 +1,573 @@
+package Server;
+
+import java.util.Locale;
+import java.util.Properties;
+
+public class ServerConfig {
+    private int port = 5555;
+    private int highWatermark = 256 * 1024; // bytes queued before a client counts as slow
+    private int lowWatermark = 64 * 1024;   // bytes queued before a slow client recovers
+    private SlowClientPolicy slowClientPolicy = SlowClientPolicy.COALESCE;
+    private boolean directBuffers = false;    // encode broadcast frames off-heap
+    private int workerCount = Runtime.getRuntime().availableProcessors(); // selector threads
+    private int commandThreads = 2;             // run slow commands (/history) off the selectors; nio engine only
+    private int readBufferSize = 8 * 1024;      // pooled direct buffer per connection with pending input
+    private int maxPooledBuffers = 4096;
+    private int maxFrameLength = 64 * 1024;     // longest inbound line or frame accepted
+    private int presenceTickMillis = 100;       // presence changes are batched into one delta per tick
+    private String journalDirectory = "journal"; // room message log; null disables it
+    private int journalSegmentBytes = 16 * 1024 * 1024;
+    private long journalRetentionBytes = 256L * 1024 * 1024;            // per room
+    private long journalRetentionMillis = 7L * 24 * 60 * 60 * 1000;     // segments older than this are deleted
+    private FsyncPolicy journalFsyncPolicy = FsyncPolicy.INTERVAL;
+    private int journalFsyncBatch = 64;
+    private int journalFsyncIntervalMillis = 1000;
+    private int historyLimit = 500;             // most messages one /history request returns
+    private int sessionReplayFrames = 512;      // frames kept per session for a resume
+    private int sessionGraceMillis = 30_000;    // how long a dropped binary client may resume
+    private int heartbeatIntervalMillis = 30_000; // silence before a binary client is pinged; 0 turns heartbeats off
+    private int heartbeatTimeoutMillis = 15_000;  // wait for any reply to a ping (or for a login) before dropping
+    private int awayAfterMillis = 300_000;        // user inactivity before showing as Away; 0 never
+    private int flushWindowMicros = 0;          // how long queued frames may wait for more to share a write
+    private int flushThresholdBytes = 32 * 1024; // queued bytes that are written without waiting out the window
+    private boolean compression = true;         // grant deflate to binary clients that ask for it
+    private int compressionLevel = 6;           // 1 (fastest) to 9 (smallest)
+    private int compressionMinBytes = 256;      // smaller frames are sent as they are
+    private int compressionSharedBytes = 4096;  // frames this big are compressed once for all recipients
+    private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.DELAY;
+    private int messagesPerSecond = 20;         // per client; 0 means unlimited
+    private int messageBurst = 50;
+    private int bytesPerSecond = 64 * 1024;     // per client; 0 means unlimited
+    private int byteBurst = 256 * 1024;
+    private long fanOutBytesPerSecond = 128L * 1024 * 1024; // room message bytes times recipients, server-wide; 0 means unlimited
+    private String clusterNodeId;               // this node's name in a cluster; null runs standalone
+    private int clusterPort = 5600;             // where the other nodes connect
+    private String clusterPeers;                // "host:port,..." of the other nodes' cluster ports
+    private int clusterHeartbeatMillis = 1000;  // an idle link sends a ping this often
+    private int clusterTimeoutMillis = 5000;    // a link silent this long counts as a dead node
+    private long clusterQueueBytes = 16L * 1024 * 1024; // unsent bytes per peer before its link is cut and resynced
+    private int logRingSize = 64 * 1024;        // log lines buffered before new ones are dropped
+    private int logFlushMillis = 100;           // log batches (and GUI log updates) per second = 1000 / this
+    private int logScrollbackLines = 5000;      // lines kept in the GUI log
+    private String logFile;                     // rolling log file; null for none
+    private long logFileMaxBytes = 10L * 1024 * 1024;
+    private int logFileCount = 5;               // rolled files kept
+    private int metricsIntervalMillis = 10_000; // metrics summary period; 0 turns the report off
+    private String metricsFile;                 // JSON snapshot rewritten every period; null for none
+
+    public ServerConfig() {
+    }
+
+    public ServerConfig(int port) {
+        this.port = port;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public void setHighWatermark(int highWatermark) {
+        this.highWatermark = highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
+    public SlowClientPolicy getSlowClientPolicy() {
+        return slowClientPolicy;
+    }
+
+    public void setSlowClientPolicy(SlowClientPolicy slowClientPolicy) {
+        this.slowClientPolicy = slowClientPolicy;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public int getCommandThreads() {
+        return commandThreads;
+    }
+
+    public void setCommandThreads(int commandThreads) {
+        this.commandThreads = commandThreads;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    public int getMaxPooledBuffers() {
+        return maxPooledBuffers;
+    }
+
+    public void setMaxPooledBuffers(int maxPooledBuffers) {
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getPresenceTickMillis() {
+        return presenceTickMillis;
+    }
+
+    public void setPresenceTickMillis(int presenceTickMillis) {
+        this.presenceTickMillis = presenceTickMillis;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public int getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    public void setJournalSegmentBytes(int journalSegmentBytes) {
+        this.journalSegmentBytes = journalSegmentBytes;
+    }
+
+    public long getJournalRetentionBytes() {
+        return journalRetentionBytes;
+    }
+
+    public void setJournalRetentionBytes(long journalRetentionBytes) {
+        this.journalRetentionBytes = journalRetentionBytes;
+    }
+
+    public long getJournalRetentionMillis() {
+        return journalRetentionMillis;
+    }
+
+    public void setJournalRetentionMillis(long journalRetentionMillis) {
+        this.journalRetentionMillis = journalRetentionMillis;
+    }
+
+    public FsyncPolicy getJournalFsyncPolicy() {
+        return journalFsyncPolicy;
+    }
+
+    public void setJournalFsyncPolicy(FsyncPolicy journalFsyncPolicy) {
+        this.journalFsyncPolicy = journalFsyncPolicy;
+    }
+
+    public int getJournalFsyncBatch() {
+        return journalFsyncBatch;
+    }
+
+    public void setJournalFsyncBatch(int journalFsyncBatch) {
+        this.journalFsyncBatch = journalFsyncBatch;
+    }
+
+    public int getJournalFsyncIntervalMillis() {
+        return journalFsyncIntervalMillis;
+    }
+
+    public void setJournalFsyncIntervalMillis(int journalFsyncIntervalMillis) {
+        this.journalFsyncIntervalMillis = journalFsyncIntervalMillis;
+    }
+
+    public int getHistoryLimit() {
+        return historyLimit;
+    }
+
+    public void setHistoryLimit(int historyLimit) {
+        this.historyLimit = historyLimit;
+    }
+
+    public int getSessionReplayFrames() {
+        return sessionReplayFrames;
+    }
+
+    public void setSessionReplayFrames(int sessionReplayFrames) {
+        this.sessionReplayFrames = sessionReplayFrames;
+    }
+
+    public int getSessionGraceMillis() {
+        return sessionGraceMillis;
+    }
+
+    public void setSessionGraceMillis(int sessionGraceMillis) {
+        this.sessionGraceMillis = sessionGraceMillis;
+    }
+
+    public int getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    public void setHeartbeatIntervalMillis(int heartbeatIntervalMillis) {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    public int getHeartbeatTimeoutMillis() {
+        return heartbeatTimeoutMillis;
+    }
+
+    public void setHeartbeatTimeoutMillis(int heartbeatTimeoutMillis) {
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+    }
+
+    public int getAwayAfterMillis() {
+        return awayAfterMillis;
+    }
+
+    public void setAwayAfterMillis(int awayAfterMillis) {
+        this.awayAfterMillis = awayAfterMillis;
+    }
+
+    public int getFlushWindowMicros() {
+        return flushWindowMicros;
+    }
+
+    public void setFlushWindowMicros(int flushWindowMicros) {
+        this.flushWindowMicros = flushWindowMicros;
+    }
+
+    public int getFlushThresholdBytes() {
+        return flushThresholdBytes;
+    }
+
+    public void setFlushThresholdBytes(int flushThresholdBytes) {
+        this.flushThresholdBytes = flushThresholdBytes;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public void setCompressionMinBytes(int compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    public int getCompressionSharedBytes() {
+        return compressionSharedBytes;
+    }
+
+    public void setCompressionSharedBytes(int compressionSharedBytes) {
+        this.compressionSharedBytes = compressionSharedBytes;
+    }
+
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    public void setRateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+        this.rateLimitPolicy = rateLimitPolicy;
+    }
+
+    public int getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void setMessagesPerSecond(int messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    public int getMessageBurst() {
+        return messageBurst;
+    }
+
+    public void setMessageBurst(int messageBurst) {
+        this.messageBurst = messageBurst;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public int getByteBurst() {
+        return byteBurst;
+    }
+
+    public void setByteBurst(int byteBurst) {
+        this.byteBurst = byteBurst;
+    }
+
+    public long getFanOutBytesPerSecond() {
+        return fanOutBytesPerSecond;
+    }
+
+    public void setFanOutBytesPerSecond(long fanOutBytesPerSecond) {
+        this.fanOutBytesPerSecond = fanOutBytesPerSecond;
+    }
+
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    public void setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public void setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+    }
+
+    public String getClusterPeers() {
+        return clusterPeers;
+    }
+
+    public void setClusterPeers(String clusterPeers) {
+        this.clusterPeers = clusterPeers;
+    }
+
+    public int getClusterHeartbeatMillis() {
+        return clusterHeartbeatMillis;
+    }
+
+    public void setClusterHeartbeatMillis(int clusterHeartbeatMillis) {
+        this.clusterHeartbeatMillis = clusterHeartbeatMillis;
+    }
+
+    public int getClusterTimeoutMillis() {
+        return clusterTimeoutMillis;
+    }
+
+    public void setClusterTimeoutMillis(int clusterTimeoutMillis) {
+        this.clusterTimeoutMillis = clusterTimeoutMillis;
+    }
+
+    public long getClusterQueueBytes() {
+        return clusterQueueBytes;
+    }
+
+    public void setClusterQueueBytes(long clusterQueueBytes) {
+        this.clusterQueueBytes = clusterQueueBytes;
+    }
+
+    public int getLogRingSize() {
+        return logRingSize;
+    }
+
+    public void setLogRingSize(int logRingSize) {
+        this.logRingSize = logRingSize;
+    }
+
+    public int getLogFlushMillis() {
+        return logFlushMillis;
+    }
+
+    public void setLogFlushMillis(int logFlushMillis) {
+        this.logFlushMillis = logFlushMillis;
+    }
+
+    public int getLogScrollbackLines() {
+        return logScrollbackLines;
+    }
+
+    public void setLogScrollbackLines(int logScrollbackLines) {
+        this.logScrollbackLines = logScrollbackLines;
+    }
+
+    public String getLogFile() {
+        return logFile;
+    }
+
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
+
+    public long getLogFileMaxBytes() {
+        return logFileMaxBytes;
+    }
+
+    public void setLogFileMaxBytes(long logFileMaxBytes) {
+        this.logFileMaxBytes = logFileMaxBytes;
+    }
+
+    public int getLogFileCount() {
+        return logFileCount;
+    }
+
+    public void setLogFileCount(int logFileCount) {
+        this.logFileCount = logFileCount;
+    }
+
+    public int getMetricsIntervalMillis() {
+        return metricsIntervalMillis;
+    }
+
+    public void setMetricsIntervalMillis(int metricsIntervalMillis) {
+        this.metricsIntervalMillis = metricsIntervalMillis;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    // Settings from a properties file; keys are the field names, missing keys keep the defaults.
+    // journalDirectory, logFile and metricsFile may be empty to turn them off.
+    public static ServerConfig load(Properties properties) {
+        ServerConfig config = new ServerConfig();
+        config.port = intValue(properties, "port", config.port);
+        config.highWatermark = intValue(properties, "highWatermark", config.highWatermark);
+        config.lowWatermark = intValue(properties, "lowWatermark", config.lowWatermark);
+        config.slowClientPolicy = enumValue(properties, "slowClientPolicy", config.slowClientPolicy);
+        config.directBuffers = booleanValue(properties, "directBuffers", config.directBuffers);
+        config.workerCount = intValue(properties, "workerCount", config.workerCount);
+        config.commandThreads = intValue(properties, "commandThreads", config.commandThreads);
+        config.readBufferSize = intValue(properties, "readBufferSize", config.readBufferSize);
+        config.maxPooledBuffers = intValue(properties, "maxPooledBuffers", config.maxPooledBuffers);
+        config.maxFrameLength = intValue(properties, "maxFrameLength", config.maxFrameLength);
+        config.presenceTickMillis = intValue(properties, "presenceTickMillis", config.presenceTickMillis);
+        config.journalDirectory = stringValue(properties, "journalDirectory", config.journalDirectory);
+        config.journalSegmentBytes = intValue(properties, "journalSegmentBytes", config.journalSegmentBytes);
+        config.journalRetentionBytes = longValue(properties, "journalRetentionBytes", config.journalRetentionBytes);
+        config.journalRetentionMillis = longValue(properties, "journalRetentionMillis", config.journalRetentionMillis);
+        config.journalFsyncPolicy = enumValue(properties, "journalFsyncPolicy", config.journalFsyncPolicy);
+        config.journalFsyncBatch = intValue(properties, "journalFsyncBatch", config.journalFsyncBatch);
+        config.journalFsyncIntervalMillis =
+            intValue(properties, "journalFsyncIntervalMillis", config.journalFsyncIntervalMillis);
+        config.historyLimit = intValue(properties, "historyLimit", config.historyLimit);
+        config.sessionReplayFrames = intValue(properties, "sessionReplayFrames", config.sessionReplayFrames);
+        config.sessionGraceMillis = intValue(properties, "sessionGraceMillis", config.sessionGraceMillis);
+        config.heartbeatIntervalMillis =
+            intValue(properties, "heartbeatIntervalMillis", config.heartbeatIntervalMillis);
+        config.heartbeatTimeoutMillis = intValue(properties, "heartbeatTimeoutMillis", config.heartbeatTimeoutMillis);
+        config.awayAfterMillis = intValue(properties, "awayAfterMillis", config.awayAfterMillis);
+        config.flushWindowMicros = intValue(properties, "flushWindowMicros", config.flushWindowMicros);
+        config.flushThresholdBytes = intValue(properties, "flushThresholdBytes", config.flushThresholdBytes);
+        config.compression = booleanValue(properties, "compression", config.compression);
+        config.compressionLevel = intValue(properties, "compressionLevel", config.compressionLevel);
+        config.compressionMinBytes = intValue(properties, "compressionMinBytes", config.compressionMinBytes);
+        config.compressionSharedBytes =
+            intValue(properties, "compressionSharedBytes", config.compressionSharedBytes);
+        config.rateLimitPolicy = enumValue(properties, "rateLimitPolicy", config.rateLimitPolicy);
+        config.messagesPerSecond = intValue(properties, "messagesPerSecond", config.messagesPerSecond);
+        config.messageBurst = intValue(properties, "messageBurst", config.messageBurst);
+        config.bytesPerSecond = intValue(properties, "bytesPerSecond", config.bytesPerSecond);
+        config.byteBurst = intValue(properties, "byteBurst", config.byteBurst);
+        config.fanOutBytesPerSecond = longValue(properties, "fanOutBytesPerSecond", config.fanOutBytesPerSecond);
+        config.clusterNodeId = stringValue(properties, "clusterNodeId", config.clusterNodeId);
+        if (config.clusterNodeId != null && !Rooms.isValidName(config.clusterNodeId)) {
+            throw new IllegalArgumentException("Invalid clusterNodeId (letters, digits, _ and -): " + config.clusterNodeId);
+        }
+        config.clusterPort = intValue(properties, "clusterPort", config.clusterPort);
+        config.clusterPeers = stringValue(properties, "clusterPeers", config.clusterPeers);
+        config.clusterHeartbeatMillis = intValue(properties, "clusterHeartbeatMillis", config.clusterHeartbeatMillis);
+        config.clusterTimeoutMillis = intValue(properties, "clusterTimeoutMillis", config.clusterTimeoutMillis);
+        config.clusterQueueBytes = longValue(properties, "clusterQueueBytes", config.clusterQueueBytes);
+        config.logRingSize = intValue(properties, "logRingSize", config.logRingSize);
+        config.logFlushMillis = intValue(properties, "logFlushMillis", config.logFlushMillis);
+        config.logScrollbackLines = intValue(properties, "logScrollbackLines", config.logScrollbackLines);
+        config.logFile = stringValue(properties, "logFile", config.logFile);
+        config.logFileMaxBytes = longValue(properties, "logFileMaxBytes", config.logFileMaxBytes);
+        config.logFileCount = intValue(properties, "logFileCount", config.logFileCount);
+        config.metricsIntervalMillis = intValue(properties, "metricsIntervalMillis", config.metricsIntervalMillis);
+        config.metricsFile = stringValue(properties, "metricsFile", config.metricsFile);
+        return config;
+    }
+
+    private static String stringValue(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static int intValue(Properties properties, String key, int defaultValue) {
+        long value = longValue(properties, key, defaultValue);
+        if (value != (int) value) {
+            throw new IllegalArgumentException("Out of range for " + key + ": " + value);
+        }
+        return (int) value;
+    }
+
+    private static long longValue(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+
+    private static boolean booleanValue(Properties properties, String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    private static <E extends Enum<E>> E enumValue(Properties properties, String key, E defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+}
@@ -6,15 +6,25 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.text.BadLocationException;
 
-public class ServerForm extends JFrame {
+public class ServerForm extends JFrame implements ServerListener {
     private final JTextField portField;
+    private final JComboBox<String> engineBox;
     private final JButton startButton;
     private final JTextArea logArea;
     private final JList<String> clientsList;
     private final DefaultListModel<String> clientsModel;
-    private ChatServer server;
+    private final ServerConfig config = new ServerConfig();
+    private final AsyncLog asyncLog;
+    // Lines waiting for the EDT; at most one update is queued on it at a time
+    private final ArrayDeque<String> pendingLines = new ArrayDeque<>();
+    private final AtomicBoolean logUpdateQueued = new AtomicBoolean();
+    private ChatEngine server;
     private boolean isRunning = false;
 
     public ServerForm() {
@@ -32,6 +42,10 @@ public class ServerForm extends JFrame {
         controlPanel.add(new JLabel("Port:"));
         portField = new JTextField("5555", 10);
         controlPanel.add(portField);
+
+        controlPanel.add(new JLabel("Engine:"));
+        engineBox = new JComboBox<>(new String[] {"NIO selectors", "Virtual threads"});
+        controlPanel.add(engineBox);
         
         startButton = new JButton("Start Server");
         startButton.addActionListener(this::toggleServer);
@@ -53,6 +67,18 @@ public class ServerForm extends JFrame {
         mainPanel.add(clientsScroll, BorderLayout.EAST);
         
         add(mainPanel);
+
+        asyncLog = new AsyncLog(config.getLogRingSize(), config.getLogFlushMillis());
+        asyncLog.addSink(this::showLogLines);
+        if (config.getLogFile() != null) {
+            try {
+                asyncLog.addSink(new RollingFileSink(config.getLogFile(), config.getLogFileMaxBytes(),
+                    config.getLogFileCount()));
+            } catch (IOException e) {
+                log("Cannot open log file: " + e.getMessage());
+            }
+        }
+        asyncLog.start();
     }
 
     private void toggleServer(ActionEvent e) {
@@ -74,7 +100,12 @@ public class ServerForm extends JFrame {
             return;
         }
         
-        server = new ChatServer(port, this);
+        config.setPort(port);
+        if (engineBox.getSelectedIndex() == 1) {
+            server = new VirtualThreadChatServer(config, this);
+        } else {
+            server = new ChatServer(config, this);
+        }
         new Thread(() -> {
             try {
                 server.start();
@@ -85,6 +116,7 @@ public class ServerForm extends JFrame {
         isRunning = true;
         startButton.setText("Stop Server");
         portField.setEnabled(false);
+        engineBox.setEnabled(false);
         log("Server started on port " + port);
     }
 
@@ -101,14 +133,51 @@ public class ServerForm extends JFrame {
         isRunning = false;
         startButton.setText("Start Server");
         portField.setEnabled(true);
+        engineBox.setEnabled(true);
     }
 
+    // Called from engine threads; never touches Swing
+    @Override
     public void log(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append(message + "\n");
-        });
+        asyncLog.log(message);
+    }
+
+    // Log writer thread, once per flush interval at most
+    private void showLogLines(List<String> lines) {
+        synchronized (pendingLines) {
+            pendingLines.addAll(lines);
+            while (pendingLines.size() > config.getLogScrollbackLines()) {
+                pendingLines.pollFirst();
+            }
+        }
+        if (logUpdateQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::appendPendingLines);
+        }
+    }
+
+    private void appendPendingLines() {
+        logUpdateQueued.set(false);
+        StringBuilder text = new StringBuilder();
+        synchronized (pendingLines) {
+            for (String line : pendingLines) {
+                text.append(line).append('\n');
+            }
+            pendingLines.clear();
+        }
+        logArea.append(text.toString());
+
+        // Capped scrollback: drop the oldest lines (the last line is the empty one after '\n')
+        int excess = logArea.getLineCount() - 1 - config.getLogScrollbackLines();
+        if (excess > 0) {
+            try {
+                logArea.replaceRange("", 0, logArea.getLineEndOffset(excess - 1));
+            } catch (BadLocationException e) {
+                logArea.setText("");
+            }
+        }
     }
 
+    @Override
     public void updateClientList(Map<SocketChannel, User> clients) {
         SwingUtilities.invokeLater(() -> {
             clientsModel.clear();
@@ -0,0 +1,16 @@
+package Server;
+
+import Shared.User;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+
+// Receives server events; ServerForm shows them, benchmarks and tools may ignore them
+public interface ServerListener {
+    void log(String message);
+
+    void updateClientList(Map<SocketChannel, User> clients);
+
+    // The listening socket is bound; connections are accepted from here on
+    default void serverStarted(int port) {
+    }
+}
@@ -0,0 +1,87 @@
+package Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+
+// Headless entry point: java -cp Server.jar Server.ServerMain [server.properties]
+// Settings come from the properties file (see ServerConfig.load) plus "engine" = nio | virtual.
+// Nothing here loads Swing, so the server runs on machines without a display.
+public class ServerMain {
+    private static final String DEFAULT_CONFIG = "server.properties";
+
+    public static void main(String[] args) throws IOException {
+        Properties properties = new Properties();
+        Path file = Paths.get(args.length > 0 ? args[0] : DEFAULT_CONFIG);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        } else if (args.length > 0) {
+            System.err.println("Config file not found: " + file);
+            System.exit(2);
+        }
+
+        ServerConfig config;
+        try {
+            config = ServerConfig.load(properties);
+        } catch (IllegalArgumentException e) {
+            System.err.println(file + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        AsyncLog log = new AsyncLog(config.getLogRingSize(), config.getLogFlushMillis());
+        log.addSink(ServerMain::printLines);
+        if (config.getLogFile() != null) {
+            log.addSink(new RollingFileSink(config.getLogFile(), config.getLogFileMaxBytes(),
+                config.getLogFileCount()));
+        }
+        log.start();
+
+        ServerListener listener = new HeadlessListener(log);
+        String engine = properties.getProperty("engine", "nio").trim();
+        ChatEngine server = engine.equalsIgnoreCase("virtual")
+            ? new VirtualThreadChatServer(config, listener)
+            : new ChatServer(config, listener);
+
+        // On SIGTERM / Ctrl-C: close the listener, then wait for start() to finish the shutdown
+        // (journal flushed and closed) before the JVM goes away
+        Thread main = Thread.currentThread();
+        Thread hook = new Thread(() -> {
+            try {
+                server.stop();
+                main.join();
+            } catch (IOException e) {
+                log.log("Error stopping server: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log.log("Server stopped");
+            log.stop();
+        }, "shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        try {
+            server.start();
+        } catch (IOException e) {
+            Runtime.getRuntime().removeShutdownHook(hook);
+            log.log("Server error: " + e.getMessage());
+            log.stop();
+            System.exit(1);
+        }
+    }
+
+    private static void printLines(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+        System.out.print(text);
+        System.out.flush();
+    }
+}
@@ -0,0 +1,217 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Throughput counters and latency histograms for both engines. Recording is a LongAdder add or
+// an atomic histogram bucket increment: no locks and no allocation, so it can stay on in
+// production. The "metrics" thread turns them into one report per interval: a summary line in
+// the log and, if metricsFile is set, a JSON snapshot that is replaced atomically.
+class ServerMetrics {
+    private final AbstractChatServer server;
+    private final ServerConfig config;
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder writes = new LongAdder(); // write calls, each carrying one or more frames
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder(); // messages that hit a rate limit
+    private final LongAdder deflateIn = new LongAdder();   // frame bytes compressed, and what they came to
+    private final LongAdder deflateOut = new LongAdder();
+    // Microseconds
+    private final LatencyHistogram selectLoop = new LatencyHistogram();
+    private final LatencyHistogram acceptToRegister = new LatencyHistogram();
+    private final LatencyHistogram receiveToDelivery = new LatencyHistogram();
+    private ScheduledExecutorService reporter;
+    // Only touched by the reporter thread
+    private final LatencyHistogram intervalSelectLoop = new LatencyHistogram();
+    private final LatencyHistogram intervalRegister = new LatencyHistogram();
+    private final LatencyHistogram intervalDelivery = new LatencyHistogram();
+    private long lastReport = System.nanoTime();
+    private long lastMessagesIn;
+    private long lastMessagesOut;
+    private long lastBytesIn;
+    private long lastBytesOut;
+    private long lastWrites;
+    private long lastRateLimited;
+
+    ServerMetrics(AbstractChatServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    void start() {
+        if (config.getMetricsIntervalMillis() <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getMetricsIntervalMillis();
+        reporter.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    void connectionAccepted() {
+        accepted.increment();
+    }
+
+    void bytesRead(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void messageReceived() {
+        messagesIn.increment();
+    }
+
+    void rateLimited() {
+        rateLimited.increment();
+    }
+
+    // A shared frame counts once, not once per recipient
+    void deflated(int before, int after) {
+        deflateIn.add(before);
+        deflateOut.add(after);
+    }
+
+    void written(int calls, int frames, long bytes) {
+        if (calls > 0) {
+            writes.add(calls);
+        }
+        if (frames > 0) {
+            messagesOut.add(frames);
+        }
+        bytesOut.add(bytes);
+    }
+
+    // Busy time of one selector loop iteration, from select() returning to the next select()
+    void selectLoop(long nanos) {
+        selectLoop.record(nanos / 1000);
+    }
+
+    void registered(long acceptedNanos) {
+        acceptToRegister.record((System.nanoTime() - acceptedNanos) / 1000);
+    }
+
+    // The last recipient of a room message got it, measured from reading the message
+    void delivered(long receivedNanos) {
+        receiveToDelivery.record((System.nanoTime() - receivedNanos) / 1000);
+    }
+
+    private void report() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastReport) / 1e9;
+        lastReport = now;
+        selectLoop.drainTo(intervalSelectLoop);
+        acceptToRegister.drainTo(intervalRegister);
+        receiveToDelivery.drainTo(intervalDelivery);
+
+        // Queue depths are read without the owners' locks; good enough for a gauge
+        int connections = 0;
+        int backlogged = 0;
+        long queued = 0;
+        long maxQueued = 0;
+        for (ClientConnection connection : server.connections()) {
+            long bytes = connection.getQueuedBytes();
+            connections++;
+            queued += bytes;
+            maxQueued = Math.max(maxQueued, bytes);
+            if (bytes > config.getHighWatermark()) {
+                backlogged++;
+            }
+        }
+
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        long read = bytesIn.sum();
+        long sent = bytesOut.sum();
+        long writeCalls = writes.sum();
+        long limited = rateLimited.sum();
+        long limitedInterval = limited - lastRateLimited;
+        long inRate = Math.round((in - lastMessagesIn) / seconds);
+        long outRate = Math.round((out - lastMessagesOut) / seconds);
+        long readRate = Math.round((read - lastBytesIn) / seconds);
+        long sentRate = Math.round((sent - lastBytesOut) / seconds);
+        long writeRate = Math.round((writeCalls - lastWrites) / seconds);
+        lastMessagesIn = in;
+        lastMessagesOut = out;
+        lastBytesIn = read;
+        lastBytesOut = sent;
+        lastWrites = writeCalls;
+        lastRateLimited = limited;
+
+        server.log("[metrics] in " + inRate + " msg/s " + readRate + " B/s, out " + outRate + " msg/s "
+            + sentRate + " B/s in " + writeRate + " writes/s, " + connections + " clients, queued " + queued + " B (max " + maxQueued + ", "
+            + backlogged + " backlogged), " + limitedInterval + " rate limited, loop " + summary(intervalSelectLoop) + ", register "
+            + summary(intervalRegister) + ", delivery " + summary(intervalDelivery));
+
+        if (config.getMetricsFile() != null) {
+            StringBuilder json = new StringBuilder(512);
+            json.append("{\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"intervalMillis\":").append(config.getMetricsIntervalMillis())
+                .append(",\"messagesIn\":{\"total\":").append(in).append(",\"perSecond\":").append(inRate)
+                .append("},\"messagesOut\":{\"total\":").append(out).append(",\"perSecond\":").append(outRate)
+                .append("},\"bytesIn\":{\"total\":").append(read).append(",\"perSecond\":").append(readRate)
+                .append("},\"bytesOut\":{\"total\":").append(sent).append(",\"perSecond\":").append(sentRate)
+                .append("},\"writes\":{\"total\":").append(writeCalls).append(",\"perSecond\":").append(writeRate)
+                .append("},\"connections\":{\"current\":").append(connections)
+                .append(",\"accepted\":").append(accepted.sum())
+                .append("},\"outboundQueue\":{\"totalBytes\":").append(queued)
+                .append(",\"maxBytes\":").append(maxQueued).append(",\"backlogged\":").append(backlogged)
+                .append("},\"rateLimited\":{\"total\":").append(limited)
+                .append("},\"deflate\":{\"inBytes\":").append(deflateIn.sum())
+                .append(",\"outBytes\":").append(deflateOut.sum()).append('}');
+            appendJson(json, "selectLoopMicros", intervalSelectLoop);
+            appendJson(json, "acceptToRegisterMicros", intervalRegister);
+            appendJson(json, "receiveToDeliveryMicros", intervalDelivery);
+            json.append("}\n");
+            writeAtomically(Paths.get(config.getMetricsFile()), json.toString());
+        }
+
+        intervalSelectLoop.reset();
+        intervalRegister.reset();
+        intervalDelivery.reset();
+    }
+
+    // "p50/p99/max us (count)"
+    private static String summary(LatencyHistogram histogram) {
+        return histogram.percentile(50) + "/" + histogram.percentile(99) + "/" + histogram.getMax()
+            + " us (" + histogram.getTotal() + ")";
+    }
+
+    private static void appendJson(StringBuilder json, String name, LatencyHistogram histogram) {
+        json.append(",\"").append(name).append("\":{\"count\":").append(histogram.getTotal())
+            .append(",\"p50\":").append(histogram.percentile(50))
+            .append(",\"p90\":").append(histogram.percentile(90))
+            .append(",\"p99\":").append(histogram.percentile(99))
+            .append(",\"p999\":").append(histogram.percentile(99.9))
+            .append(",\"max\":").append(histogram.getMax()).append('}');
+    }
+
+    // Readers never see a half-written file
+    private void writeAtomically(Path file, String content) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            server.log("Cannot write metrics file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package Server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// A binary client's identity across reconnects. While the connection is gone the session stays
+// in its rooms and roster and keeps recording what it would have been sent; a client that comes
+// back in time with its token gets exactly the frames it missed, and nobody else notices.
+class Session {
+    private final String token;
+    private final ReplayBuffer replay;
+    // Not synchronized: frames are forwarded under it, which may park in BlockingConnection.send
+    private final ReentrantLock lock = new ReentrantLock();
+    private ClientConnection connection; // guarded by lock
+    private long detachedAt;             // 0 while a connection is attached
+    private boolean expired;
+
+    Session(String token, int replayFrames, ClientConnection connection) {
+        this.token = token;
+        this.replay = new ReplayBuffer(replayFrames);
+        this.connection = connection;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    ReplayBuffer getReplay() {
+        return replay;
+    }
+
+    // Held by a resume until the replay is queued, which holds back frames forwarded from the
+    // old connection meanwhile
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    ClientConnection getConnection() {
+        lock.lock();
+        try {
+            return connection;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isExpired() {
+        lock.lock();
+        try {
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void attach(ClientConnection connection) {
+        lock.lock();
+        try {
+            this.connection = connection;
+            this.detachedAt = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called when `from` lost its socket; false if the session already moved elsewhere
+    boolean detach(ClientConnection from) {
+        lock.lock();
+        try {
+            if (connection != from) {
+                return false;
+            }
+            detachedAt = System.currentTimeMillis();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A frame addressed to a connection that is closed or was replaced by a resume
+    void deliver(ClientConnection from, OutboundFrame frame, boolean coalescable) {
+        lock.lock();
+        try {
+            if (expired) {
+                return;
+            }
+            if (connection == from) {
+                if (!coalescable) {
+                    replay.record(from.outbound, frame.encoded(WireFormat.BINARY));
+                }
+            } else {
+                connection.send(frame, coalescable);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A broadcast while detached: the old connection left every fan-out set when it closed.
+    // Once resumed the new connection is a fan-out target itself, so nothing is forwarded.
+    void record(OutboundFrame frame) {
+        lock.lock();
+        try {
+            if (!expired && detachedAt != 0) {
+                replay.record(connection.outbound, frame.encoded(WireFormat.BINARY));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True exactly once, when a detached session outlives the grace period
+    boolean expireIfIdle(long now, long graceMillis) {
+        lock.lock();
+        try {
+            if (expired || detachedAt == 0 || now - detachedAt < graceMillis) {
+                return false;
+            }
+            expired = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
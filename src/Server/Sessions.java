@@ -0,0 +1,92 @@
+package Server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Token -> session, plus the sweeper that ends sessions whose client did not come back
+class Sessions {
+    private static final long SWEEP_MILLIS = 1000;
+
+    private final AbstractChatServer server;
+    private final ServerConfig config;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Set<Session> detached = ConcurrentHashMap.newKeySet(); // in their grace period
+    private ScheduledExecutorService sweeper;
+
+    Sessions(AbstractChatServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        // Seeding SecureRandom takes tens of milliseconds; do it here rather than before accepting
+        sweeper.execute(TokenSource::warmUp);
+    }
+
+    void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        sessions.clear();
+        detached.clear();
+    }
+
+    Session create(ClientConnection connection) {
+        byte[] bytes = new byte[18];
+        TokenSource.RANDOM.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().encodeToString(bytes),
+            config.getSessionReplayFrames(), connection);
+        sessions.put(session.getToken(), session);
+        return session;
+    }
+
+    Session get(String token) {
+        return sessions.get(token);
+    }
+
+    void detached(Session session) {
+        detached.add(session);
+    }
+
+    void resumed(Session session) {
+        detached.remove(session);
+    }
+
+    // Broadcasts go to every connected client; a dropped one keeps them for its resume
+    void record(OutboundFrame frame) {
+        for (Session session : detached) {
+            session.record(frame);
+        }
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            if (session.expireIfIdle(now, config.getSessionGraceMillis())) {
+                sessions.remove(session.getToken());
+                detached.remove(session);
+                server.sessionExpired(session);
+            }
+        }
+    }
+
+    private static class TokenSource {
+        static final SecureRandom RANDOM = new SecureRandom();
+
+        static void warmUp() {
+            RANDOM.nextBytes(new byte[1]);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package Server;
+
+// What to do with a client whose outbound queue is above the high watermark
+public enum SlowClientPolicy {
+    DROP,       // discard new frames until the queue drains below the low watermark
+    COALESCE,   // keep only the newest snapshot frame (user list), discard the rest
+    DISCONNECT  // close the connection
+}
@@ -0,0 +1,82 @@
+package Server;
+
+// Hashed timing wheel: a timer is filed under the slot of the tick its deadline falls in, so
+// scheduling is O(1) and a tick only looks at one slot. Deadlines more than a turn away stay
+// in their slot for the extra turns. Expired items say when they want to be looked at again,
+// which lets callers touch nothing but a timestamp on the hot path.
+// Not thread-safe: one thread schedules and advances it.
+class TimingWheel<T> {
+    interface Expiry<T> {
+        // Returns the item's next deadline, or 0 to forget it
+        long expired(T item, long now);
+    }
+
+    private final long tickMillis;
+    private final Entry<T>[] slots;
+    private final int mask;
+    private final long startMillis;
+    private long ticks; // ticks already processed
+    private int size;
+
+    TimingWheel(long tickMillis, int slotCount, long now) {
+        int n = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1; // power of two
+        @SuppressWarnings("unchecked")
+        Entry<T>[] slots = (Entry<T>[]) new Entry<?>[n];
+        this.tickMillis = tickMillis;
+        this.slots = slots;
+        this.mask = n - 1;
+        this.startMillis = now;
+    }
+
+    void schedule(T item, long deadline) {
+        long tick = Math.max(ticks, (deadline - startMillis + tickMillis - 1) / tickMillis);
+        int slot = (int) (tick & mask);
+        slots[slot] = new Entry<>(item, (tick - ticks) / slots.length, slots[slot]);
+        size++;
+    }
+
+    // Runs every tick that is due
+    void advance(long now, Expiry<T> expiry) {
+        while (size > 0 && startMillis + ticks * tickMillis <= now) {
+            int slot = (int) (ticks & mask);
+            Entry<T> entry = slots[slot];
+            slots[slot] = null;
+            ticks++; // items rescheduled from here land in a later tick, never in this one
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.rounds > 0) {
+                    entry.rounds--;
+                    entry.next = slots[slot];
+                    slots[slot] = entry;
+                } else {
+                    size--;
+                    long deadline = expiry.expired(entry.item, now);
+                    if (deadline != 0) {
+                        schedule(entry.item, deadline);
+                    }
+                }
+                entry = next;
+            }
+        }
+        if (size == 0 && startMillis + ticks * tickMillis <= now) {
+            ticks = (now - startMillis) / tickMillis + 1; // nothing to do while empty; skip ahead
+        }
+    }
+
+    // Milliseconds until the next tick, or 0 when nothing is scheduled
+    long delayMillis(long now) {
+        return size == 0 ? 0 : Math.max(1, startMillis + ticks * tickMillis - now);
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        long rounds; // whole turns left before it is due
+        Entry<T> next;
+
+        Entry(T item, long rounds, Entry<T> next) {
+            this.item = item;
+            this.rounds = rounds;
+            this.next = next;
+        }
+    }
+}
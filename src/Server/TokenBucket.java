@@ -0,0 +1,47 @@
+package Server;
+
+// Refills at `rate` tokens per second up to `capacity`. A take may overdraw the bucket, so one
+// large message is never refused outright; the debt is paid back before anything else passes.
+// Not thread-safe.
+class TokenBucket {
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    // rate 0 means unlimited
+    TokenBucket(long rate, long capacity, long now) {
+        this.ratePerNano = rate / 1e9;
+        this.capacity = Math.max(capacity, 1);
+        this.tokens = this.capacity;
+        this.refilledAt = now;
+    }
+
+    // Nanoseconds until the bucket is out of debt, 0 if tokens can be taken now
+    long waitNanos(long now) {
+        if (ratePerNano == 0) {
+            return 0;
+        }
+        refill(now);
+        return tokens > 0 ? 0 : (long) Math.ceil((1 - tokens) / ratePerNano);
+    }
+
+    void take(long amount) {
+        if (ratePerNano != 0) {
+            tokens -= amount;
+        }
+    }
+
+    // Refilled all the way, so forgetting this bucket gives nobody extra tokens
+    boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+        }
+    }
+}
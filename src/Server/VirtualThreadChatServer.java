@@ -0,0 +1,128 @@
+package Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Blocking engine: every connection gets a reader and a writer virtual thread. Heartbeats for
+// all of them run on one timing wheel owned by a single heartbeat thread.
+public class VirtualThreadChatServer extends AbstractChatServer {
+    private ServerSocketChannel serverSocketChannel;
+    private final Set<BlockingConnection> connections = ConcurrentHashMap.newKeySet();
+    private final Queue<ClientConnection> unscheduled = new ConcurrentLinkedQueue<>(); // waiting for the wheel
+    private TimingWheel<ClientConnection> wheel;
+    private ScheduledExecutorService ticker;
+
+    public VirtualThreadChatServer(int port, ServerListener listener) {
+        this(new ServerConfig(port), listener);
+    }
+
+    public VirtualThreadChatServer(ServerConfig config, ServerListener listener) {
+        super(config, listener);
+    }
+
+    @Override
+    public void start() throws IOException {
+        registerCommands();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(config.getPort()));
+        presence.start();
+        sessions.start();
+        metrics.start();
+        if (journal != null) {
+            journal.start();
+        }
+        cluster.start();
+        wheel = heartbeat.newWheel();
+        if (wheel != null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleWithFixedDelay(this::tick, Heartbeat.TICK_MILLIS, Heartbeat.TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+        }
+
+        listener.log("Server started on port " + config.getPort()
+            + " with virtual threads. Waiting for connections...");
+        listener.serverStarted(config.getPort());
+
+        while (running) {
+            try {
+                SocketChannel clientChannel = serverSocketChannel.accept();
+                metrics.connectionAccepted();
+                BlockingConnection connection =
+                    new BlockingConnection(clientChannel, newGuest(clientChannel), config, bufferPool, metrics, this);
+                connections.add(connection);
+                if (wheel != null) {
+                    unscheduled.add(connection);
+                }
+                Thread.ofVirtual().name("chat-writer").start(connection::writeLoop);
+                Thread.ofVirtual().name("chat-reader").start(() -> serve(connection));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                listener.log("Server error: " + e.getMessage());
+            }
+        }
+        shutdown();
+    }
+
+    @Override
+    public void stop() throws IOException {
+        running = false;
+        serverSocketChannel.close(); // unblocks accept()
+    }
+
+    // Heartbeat thread: the only one that touches the wheel
+    private void tick() {
+        long now = System.currentTimeMillis();
+        ClientConnection connection;
+        while ((connection = unscheduled.poll()) != null) {
+            wheel.schedule(connection, now);
+        }
+        wheel.advance(now, heartbeat);
+    }
+
+    private void serve(BlockingConnection connection) {
+        while (!connection.isClosed()) {
+            readMessage(connection);
+        }
+        connections.remove(connection);
+    }
+
+    private void shutdown() {
+        presence.stop();
+        sessions.stop();
+        metrics.stop();
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        cluster.stop(); // before the notice, which is for our own clients only
+        broadcastSystemMessage("[SERVER] Server is shutting down");
+        for (BlockingConnection connection : connections) {
+            connection.closeOutput(); // writer flushes the notice, then closes the socket
+        }
+        if (journal != null) {
+            journal.stop(); // late appends from reader threads are ignored
+        }
+        clients.clear();
+    }
+
+    @Override
+    protected void fanOut(OutboundFrame frame, boolean coalescable) {
+        for (BlockingConnection connection : connections) {
+            connection.send(frame, coalescable);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package Server;
+
+// Protocol a connection negotiated when it sent its first bytes
+enum WireFormat {
+    TEXT,   // legacy newline-delimited lines
+    BINARY  // length-prefixed frames, see Shared.FrameCodec
+}
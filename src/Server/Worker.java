@@ -0,0 +1,299 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One reactor thread: owns a Selector and every connection registered with it, plus the
+// timing wheel that runs their heartbeats. Other threads only talk to it through the
+// lock-free task queue.
+class Worker implements Runnable {
+    private static final int PAUSE_TICK_MILLIS = 10;
+
+    private final ChatServer server;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Map<SocketChannel, NioConnection> connections = new HashMap<>();
+    private final Set<NioConnection> pendingDisconnects = new LinkedHashSet<>();
+    private final List<NioConnection> unflushed = new ArrayList<>(); // queued frames not yet written
+    private final long flushWindowNanos;
+    private final int flushThresholdBytes;
+    private final TimingWheel<ClientConnection> wheel; // null when heartbeats are off
+    private final TimingWheel<NioConnection> pausedReads; // rate limited connections
+    private volatile boolean running = true;
+
+    Worker(ChatServer server, int id) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "chat-worker-" + id);
+        this.wheel = server.heartbeat.newWheel();
+        this.flushWindowNanos = server.config.getFlushWindowMicros() * 1000L;
+        this.flushThresholdBytes = server.config.getFlushThresholdBytes();
+        this.pausedReads = new TimingWheel<>(PAUSE_TICK_MILLIS, 256, System.currentTimeMillis());
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    // Runs the task on the worker thread at the end of its current loop iteration
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    // Called by the acceptor thread; registration happens on the worker thread
+    void accept(SocketChannel channel) {
+        execute(() -> register(channel));
+    }
+
+    // One handoff per worker per broadcast, not one per recipient
+    void fanOut(OutboundFrame frame, boolean coalescable) {
+        frame.beginFanOut();
+        execute(() -> {
+            for (NioConnection connection : connections.values()) {
+                connection.send(frame, coalescable);
+            }
+            server.fanOutFinished(frame);
+        });
+    }
+
+    void fanOut(List<NioConnection> recipients, OutboundFrame frame, boolean coalescable) {
+        frame.beginFanOut();
+        execute(() -> {
+            for (NioConnection connection : recipients) {
+                connection.send(frame, coalescable);
+            }
+            server.fanOutFinished(frame);
+        });
+    }
+
+    // Queues a frame for a connection owned by this worker. Failures are handled after
+    // the current loop iteration so fan-out never modifies the connection map mid-iteration.
+    void send(NioConnection connection, ByteBuffer frame, boolean coalescable) {
+        if (Thread.currentThread() != thread) {
+            execute(() -> send(connection, frame, coalescable));
+            return;
+        }
+        if (connection.isClosed()) {
+            return;
+        }
+        if (!connection.enqueue(frame, coalescable)) {
+            server.log("Disconnecting slow client: " + connection.getUser());
+            pendingDisconnects.add(connection);
+        } else if (connection.getFlushPendingSince() == 0 && !connection.isWaitingForWrite()) {
+            connection.setFlushPendingSince(System.nanoTime());
+            unflushed.add(connection);
+        }
+    }
+
+    void disconnect(NioConnection connection) {
+        execute(() -> pendingDisconnects.add(connection));
+    }
+
+    // Worker thread: reading from `connection` starts again after `nanos`
+    void resumeLater(NioConnection connection, long nanos) {
+        pausedReads.schedule(connection, System.currentTimeMillis() + (nanos + 999_999) / 1_000_000);
+    }
+
+    // Frames the command sends are queued through execute() before the connection is read again,
+    // so replies keep their order
+    void offload(NioConnection connection, Runnable command) {
+        server.runCommand(() -> {
+            try {
+                command.run();
+            } finally {
+                execute(() -> commandFinished(connection));
+            }
+        });
+    }
+
+    void remove(NioConnection connection) {
+        connections.remove(connection.getChannel());
+    }
+
+    @Override
+    public void run() {
+        long timeout = 0;
+        while (running) {
+            try {
+                selector.select(timeout); // 0 blocks until there is I/O or a task
+                long busySince = System.nanoTime();
+                wakeupPending.set(false);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) continue;
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isReadable()) {
+                        server.readMessage(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        try {
+                            connection.flush();
+                        } catch (IOException e) {
+                            pendingDisconnects.add(connection);
+                        }
+                    }
+                }
+                long now = System.currentTimeMillis();
+                pausedReads.advance(now, this::resumeReading);
+                if (wheel != null) {
+                    wheel.advance(now, server.heartbeat);
+                }
+                // Disconnects broadcast to other clients and failed writes disconnect, so keep
+                // going until all three are empty
+                long flushDelay;
+                do {
+                    runTasks();
+                    processPendingDisconnects();
+                    flushDelay = flushUnflushed();
+                } while (!tasks.isEmpty() || !pendingDisconnects.isEmpty());
+                now = System.currentTimeMillis();
+                timeout = pausedReads.delayMillis(now);
+                long heartbeatDelay = wheel != null ? wheel.delayMillis(now) : 0;
+                if (timeout == 0 || (heartbeatDelay != 0 && heartbeatDelay < timeout)) {
+                    timeout = heartbeatDelay;
+                }
+                if (flushDelay != 0 && (timeout == 0 || flushDelay < timeout)) {
+                    timeout = flushDelay;
+                }
+                server.metrics.selectLoop(System.nanoTime() - busySince);
+            } catch (IOException e) {
+                server.log("Server error: " + e.getMessage());
+            }
+        }
+        shutdown();
+    }
+
+    private void register(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            NioConnection connection = server.newConnection(channel, key, this);
+            key.attach(connection);
+            connections.put(channel, connection);
+            if (wheel != null) {
+                wheel.schedule(connection, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            server.log("Error registering client: " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // A rate limit pause is over: catch up on buffered messages, then read again unless that
+    // paused it anew
+    private long resumeReading(NioConnection connection, long now) {
+        if (!connection.isClosed() && connections.containsKey(connection.getChannel())) {
+            connection.setReadsHeld(false);
+            server.resumeReading(connection);
+            if (!connection.isReadsHeld()) {
+                connection.resumeReads();
+            }
+        }
+        return 0;
+    }
+
+    // Unless a rate limit pause is still on, handle what arrived meanwhile and read again
+    private void commandFinished(NioConnection connection) {
+        connection.setCommandRunning(false);
+        if (!connection.isClosed() && connections.containsKey(connection.getChannel())
+                && !connection.isReadsHeld()) {
+            server.resumeReading(connection);
+            if (!connection.isReadsHeld()) {
+                connection.resumeReads();
+            }
+        }
+    }
+
+    // One gathering write per connection for everything queued this iteration. Within the flush
+    // window a connection may wait for more (unless it has flushThreshold bytes queued), so a
+    // busy room's messages share writes. Returns milliseconds until the next one is due, or 0.
+    private long flushUnflushed() {
+        long now = System.nanoTime();
+        long nextDue = Long.MAX_VALUE;
+        int kept = 0;
+        for (NioConnection connection : unflushed) {
+            if (connection.isClosed()) {
+                connection.setFlushPendingSince(0);
+                continue;
+            }
+            long due = connection.getFlushPendingSince() + flushWindowNanos;
+            if (due > now && connection.getQueuedBytes() < flushThresholdBytes) {
+                unflushed.set(kept++, connection);
+                nextDue = Math.min(nextDue, due);
+                continue;
+            }
+            connection.setFlushPendingSince(0);
+            try {
+                connection.flush();
+            } catch (IOException e) {
+                pendingDisconnects.add(connection);
+            }
+        }
+        unflushed.subList(kept, unflushed.size()).clear();
+        return kept == 0 ? 0 : Math.max(1, (nextDue - now + 999_999) / 1_000_000);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void processPendingDisconnects() throws IOException {
+        while (!pendingDisconnects.isEmpty()) {
+            Iterator<NioConnection> it = pendingDisconnects.iterator();
+            NioConnection connection = it.next();
+            it.remove();
+            if (connections.containsKey(connection.getChannel())) {
+                server.disconnectClient(connection);
+            }
+        }
+    }
+
+    private void shutdown() {
+        runTasks(); // deliver anything queued before stop(), e.g. the shutdown notice
+        for (NioConnection connection : new ArrayList<>(connections.values())) {
+            try {
+                connection.flush(); // best effort, a slow client may miss the notice
+                connection.close();
+            } catch (IOException e) {
+                server.log("Error closing client channel: " + e.getMessage());
+            }
+        }
+        connections.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            server.log("Error closing selector: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package Shared;
+
+public class Frame {
+    private final FrameType type;
+    private final String payload;
+
+    public Frame(FrameType type, String payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    public FrameType getType() {
+        return type;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return type + ": " + payload;
+    }
+}
@@ -0,0 +1,134 @@
+package Shared;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+// Binary wire protocol, version 3. Version 2 added PING/PONG heartbeats; a version 1 peer
+// is never sent a PING. Version 3 added compression: a client may send COMPRESS "deflate"
+// before REGISTER or RESUME, and if the server answers COMPRESS "deflate" it may from then on
+// send DEFLATED and DEFLATED_SHARED frames (see below). Older clients never ask.
+//
+// A binary client opens with a 4 byte handshake: 0x00 'C' 'H' <highest version it speaks>.
+// The server answers with the same marker and the version it picked. Legacy text clients
+// never send a 0x00 byte, so the first byte tells the server which protocol is in use.
+//
+// After the handshake every frame is: int32 length | type byte | UTF-8 payload,
+// where length counts the type byte plus the payload.
+//
+// A compressed frame's payload is the raw deflate (no zlib header) of the type byte and payload
+// of the frame it stands for. DEFLATED continues the connection's one deflate stream, flushed
+// with SYNC_FLUSH at every frame, so the dictionary carries over from one frame to the next.
+// DEFLATED_SHARED is a complete deflate stream of its own, so one copy serves every recipient.
+public final class FrameCodec {
+    public static final int VERSION = 3;
+    public static final String DEFLATE = "deflate";
+    public static final byte HANDSHAKE_MARKER = 0;
+    public static final int HANDSHAKE_LENGTH = 4;
+    public static final int HEADER_LENGTH = 5;
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private FrameCodec() {
+    }
+
+    public static ByteBuffer handshake(int version) {
+        return ByteBuffer.wrap(new byte[] {HANDSHAKE_MARKER, 'C', 'H', (byte) version});
+    }
+
+    // Returns the version carried by a complete handshake
+    public static int parseHandshake(byte[] bytes) throws ProtocolException {
+        if (bytes[0] != HANDSHAKE_MARKER || bytes[1] != 'C' || bytes[2] != 'H' || bytes[3] < 1) {
+            throw new ProtocolException("Bad handshake");
+        }
+        return bytes[3];
+    }
+
+    public static ByteBuffer encode(FrameType type, String payload, boolean direct) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = direct
+            ? ByteBuffer.allocateDirect(HEADER_LENGTH + bytes.length)
+            : ByteBuffer.allocate(HEADER_LENGTH + bytes.length);
+        frame.putInt(1 + bytes.length).put(type.getCode()).put(bytes).flip();
+        return frame;
+    }
+
+    public static void write(DataOutputStream out, FrameType type, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + bytes.length);
+        out.writeByte(type.getCode());
+        out.write(bytes);
+    }
+
+    // Compresses an encoded frame (without consuming it) into a `wrapper` frame: DEFLATED
+    // flushes `deflater` and leaves its stream open, DEFLATED_SHARED finishes it, after which
+    // the caller has to reset it before the next frame
+    public static ByteBuffer deflate(ByteBuffer frame, Deflater deflater, FrameType wrapper, boolean direct) {
+        ByteBuffer input = frame.duplicate();
+        input.position(input.position() + 4);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + 64 + input.remaining() / 2);
+        out.position(HEADER_LENGTH);
+        deflater.setInput(input);
+        if (wrapper == FrameType.DEFLATED) {
+            while (true) {
+                deflater.deflate(out, Deflater.SYNC_FLUSH);
+                if (out.hasRemaining()) {
+                    break; // a full buffer may hide more flushed output
+                }
+                out = grow(out);
+            }
+        } else {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!out.hasRemaining()) {
+                    out = grow(out);
+                }
+                deflater.deflate(out);
+            }
+        }
+        out.flip();
+        out.putInt(0, out.limit() - 4).put(4, wrapper.getCode());
+        if (direct) {
+            return ByteBuffer.allocateDirect(out.limit()).put(out).flip();
+        }
+        return out;
+    }
+
+    private static ByteBuffer grow(ByteBuffer out) {
+        out.flip();
+        return ByteBuffer.allocate(out.capacity() * 2).put(out);
+    }
+
+    // Blocks until a whole frame is read; frames of unknown type are skipped
+    public static Frame read(DataInputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    // As above, expanding compressed frames with `inflater`; null if compression was not negotiated
+    public static Frame read(DataInputStream in, FrameInflater inflater) throws IOException {
+        while (true) {
+            int length = in.readInt();
+            if (length < 1 || length > MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Bad frame length " + length);
+            }
+            FrameType type = FrameType.fromCode(in.readByte());
+            byte[] bytes = new byte[length - 1];
+            in.readFully(bytes);
+            if (type == FrameType.DEFLATED || type == FrameType.DEFLATED_SHARED) {
+                if (inflater == null) {
+                    throw new ProtocolException("Compressed frame without negotiation");
+                }
+                byte[] inner = inflater.inflate(bytes, type == FrameType.DEFLATED);
+                type = FrameType.fromCode(inner[0]);
+                if (type != null) {
+                    return new Frame(type, new String(inner, 1, inner.length - 1, StandardCharsets.UTF_8));
+                }
+            } else if (type != null) {
+                return new Frame(type, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
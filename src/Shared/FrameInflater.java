@@ -0,0 +1,51 @@
+package Shared;
+
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// The receiving end of one connection's compression: the connection's deflate stream, plus
+// a second inflater that is reset for every DEFLATED_SHARED frame. Not thread-safe.
+public final class FrameInflater {
+    private final Inflater stream = new Inflater(true);
+    private final Inflater shared = new Inflater(true);
+    private byte[] buffer = new byte[8192];
+
+    // The type byte and payload of the frame carried by a compressed payload
+    public byte[] inflate(byte[] compressed, boolean inStream) throws ProtocolException {
+        Inflater inflater = inStream ? stream : shared;
+        inflater.setInput(compressed);
+        int length = 0;
+        try {
+            do {
+                if (length == buffer.length) {
+                    if (length > FrameCodec.MAX_FRAME_LENGTH) {
+                        throw new ProtocolException("Compressed frame too long");
+                    }
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new ProtocolException("Bad compressed frame");
+                }
+                length += n;
+            } while (length == buffer.length || !(inflater.needsInput() || inflater.finished()));
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Bad compressed frame: " + e.getMessage());
+        } finally {
+            if (!inStream) {
+                inflater.reset();
+            }
+        }
+        if (length == 0) {
+            throw new ProtocolException("Empty compressed frame");
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public void end() {
+        stream.end();
+        shared.end();
+    }
+}
@@ -0,0 +1,42 @@
+package Shared;
+
+// Type byte of a binary protocol frame
+public enum FrameType {
+    CHAT(1),
+    REGISTER(2),
+    STATUS(3),
+    USERLIST(4),
+    SYSTEM(5),
+    PRESENCE(6),
+    ROOM(7),
+    SESSION(8),
+    RESUME(9),
+    PING(10),   // version 2: the peer answers with PONG
+    PONG(11),
+    COMPRESS(12),        // version 3: asks for (or, from the server, grants) compression
+    DEFLATED(13),        // version 3: a frame compressed in the connection's deflate stream
+    DEFLATED_SHARED(14); // version 3: a frame compressed on its own, the same bytes for every client
+
+    private static final FrameType[] BY_CODE = new FrameType[256];
+
+    static {
+        for (FrameType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    FrameType(int code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return (byte) code;
+    }
+
+    // Returns null for codes this version does not know
+    public static FrameType fromCode(byte code) {
+        return BY_CODE[code & 0xFF];
+    }
+}
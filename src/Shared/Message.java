@@ -4,17 +4,27 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 public class Message implements Serializable {
-    private final String sender;
+    private final String room;    // null unless it was said in a room
+    private final long sequence;  // the room's number for it, 0 outside rooms
+    private final String sender;  // null for system lines
     private final String content;
     private final LocalDateTime timestamp;
     
     public Message(String sender, String content) {
+        this(null, 0, sender, content);
+    }
+
+    public Message(String room, long sequence, String sender, String content) {
+        this.room = room;
+        this.sequence = sequence;
         this.sender = sender;
         this.content = content;
         this.timestamp = LocalDateTime.now();
     }
     
     // Getters and toString()
+    public String getRoom() { return room; }
+    public long getSequence() { return sequence; }
     public String getSender() { return sender; }
     public String getContent() { return content; }
     public LocalDateTime getTimestamp() { return timestamp; }
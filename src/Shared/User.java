@@ -3,9 +3,9 @@ package Shared;
 import java.io.Serializable;
 
 public class User implements Serializable {
-    private String username;
-    private String status; // Online, Away, Busy, etc.
-    private long lastActive; // timestamp
+    private volatile String username;
+    private volatile String status; // Online, Away, Busy, etc.
+    private volatile long lastActive; // timestamp
 
     public User(String username) {
         this.username = username;